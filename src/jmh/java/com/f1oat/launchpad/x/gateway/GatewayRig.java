@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+/**
+ * MidiHandler wired to in-memory devices, for benchmarks.
+ *
+ * @author f1oat
+ */
+public class GatewayRig {
+
+    /**
+     * Counts what the gateway sends, so that nothing is optimized away
+     */
+    public static class Sink implements Receiver {
+        public long messages = 0;
+        public long bytes = 0;
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            messages++;
+            bytes += message.getLength();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public final VirtualMidiDevice fl_in = new VirtualMidiDevice("FL_to_LPX");
+    public final VirtualMidiDevice fl_out = new VirtualMidiDevice("LPX_to_FL");
+    public final VirtualMidiDevice fl_out_native = new VirtualMidiDevice("LPX_to_FL (Native)");
+    public final VirtualMidiDevice lpx_in = new VirtualMidiDevice("LPX MIDI in");
+    public final VirtualMidiDevice lpx_out = new VirtualMidiDevice("LPX MIDI out");
+    public final Sink toFL = new Sink();
+    public final Sink toLPX = new Sink();
+    public final MidiHandler midi = new MidiHandler();
+
+    public GatewayRig() {
+        fl_out.getTransmitter().setReceiver(toFL);
+        lpx_out.getTransmitter().setReceiver(toLPX);
+        midi.setLedFrameRate(0);    // Flush each frame inline, no timer thread
+        midi.set(fl_in, fl_out, fl_out_native, lpx_in, lpx_out);
+        midi.start();
+    }
+
+    public void close() {
+        midi.stop();
+    }
+
+    /**
+     * @return the first count valid LED indexes, 11..99
+     */
+    public static int[] leds(int count) {
+        int[] leds = new int[count];
+        int n = 0;
+        for (int index = 11; index <= 99 && n < count; index++) {
+            if (LedScheduler.isValidLed(index)) {
+                leds[n++] = index;
+            }
+        }
+        return leds;
+    }
+
+    /**
+     * @return MK2 "Set LEDs RGB" SysEx, 6-bit colours derived from seed
+     */
+    public static byte[] mk2RgbFrame(int[] leds, int seed) {
+        byte[] header = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 18h 0Bh");
+        byte[] frame = new byte[header.length + 4 * leds.length + 1];
+        System.arraycopy(header, 0, frame, 0, header.length);
+        int i = header.length;
+        for (int led : leds) {
+            frame[i++] = (byte) led;
+            frame[i++] = (byte) ((led + seed) & 0x3F);
+            frame[i++] = (byte) ((2 * led + seed) & 0x3F);
+            frame[i++] = (byte) ((3 * led + seed) & 0x3F);
+        }
+        frame[i] = (byte) 0xF7;
+        return frame;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.SysexMessage;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * FL-Studio to Launchpad-X path: MK2 0Bh frame in, lighting SysEx queued for
+ * the port writer thread, i.e. the cost paid on the MIDI callback thread.
+ * Colours alternate between two frames so that no update is redundant.
+ *
+ * @author f1oat
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LedFrameBenchmark {
+
+    @Param({"1", "16", "81"})
+    public int ledCount;
+
+    private GatewayRig rig;
+    private final SysexMessage[] frames = new SysexMessage[2];
+    private final LedTranslator translator = new LedTranslator();
+    private byte[][] rawFrames;
+    private int toggle = 0;
+
+    @Setup
+    public void setup() throws InvalidMidiDataException {
+        rig = new GatewayRig();
+        int[] leds = GatewayRig.leds(ledCount);
+        rawFrames = new byte[][]{GatewayRig.mk2RgbFrame(leds, 0), GatewayRig.mk2RgbFrame(leds, 1)};
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new SysexMessage(rawFrames[i], rawFrames[i].length);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        rig.close();
+    }
+
+    @Benchmark
+    public long gateway() {
+        toggle ^= 1;
+        rig.fl_in.send(frames[toggle], -1);
+        return rig.toLPX.bytes;
+    }
+
+    @Benchmark
+    public int translateOnly() {
+        toggle ^= 1;
+        byte[] frame = rawFrames[toggle];
+        return translator.translateRgb(frame, frame.length);
+    }
+}
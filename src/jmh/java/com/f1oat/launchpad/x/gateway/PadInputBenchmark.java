@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.ShortMessage;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Launchpad-X to FL-Studio path: pad and aftertouch remapping, plus the
+ * hex2byte helper.
+ *
+ * @author f1oat
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PadInputBenchmark {
+
+    private GatewayRig rig;
+    private final ShortMessage[] notes = new ShortMessage[2];
+    private final ShortMessage[] pressures = new ShortMessage[2];
+    private final ShortMessage[] topRow = new ShortMessage[2];
+    private int toggle = 0;
+
+    @Setup
+    public void setup() throws InvalidMidiDataException {
+        rig = new GatewayRig();
+        // Measure the remapping itself, not the thinning
+        rig.midi.getPressureThinner().setMinDelta(1);
+        rig.midi.getPressureThinner().setMaxRate(0);
+        for (int i = 0; i < 2; i++) {
+            notes[i] = new ShortMessage(ShortMessage.NOTE_ON, 0, 11 + i, 100 * (1 - i));
+            pressures[i] = new ShortMessage(ShortMessage.POLY_PRESSURE, 0, 11, 40 + 20 * i);
+            topRow[i] = new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 91 + i, 127 * (1 - i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        rig.close();
+    }
+
+    @Benchmark
+    public long padPress() {
+        toggle ^= 1;
+        rig.lpx_in.send(notes[toggle], -1);
+        return rig.toFL.messages;
+    }
+
+    @Benchmark
+    public long aftertouch() {
+        toggle ^= 1;
+        rig.lpx_in.send(pressures[toggle], -1);
+        return rig.toFL.messages;
+    }
+
+    @Benchmark
+    public long topRowButton() {
+        toggle ^= 1;
+        rig.lpx_in.send(topRow[toggle], -1);
+        return rig.toFL.messages;
+    }
+
+    @Benchmark
+    public long pressPad() {
+        toggle ^= 1;
+        rig.midi.pressPad(11, 127 * toggle);
+        return rig.toFL.messages;
+    }
+
+    @Benchmark
+    public byte[] hex2byte() {
+        return MidiHandler.hex2byte("F0h 00h 20h 29h 02h 0Ch 03h");
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.MidiDevice;
+
+/**
+ * Follows the MIDI device list and reconnects the gateway when one of its
+ * configured ports disappears and comes back, typically after a USB hub
+ * reset. The gateway is stopped while a port is missing, and restarted
+ * with the configured names as soon as they are all listed again; start()
+ * then sends the whole LED state to the Launchpad-X.
+ * A gateway stopped by the user is left alone, and the user stopping or
+ * reconfiguring a lost gateway cancels the reconnection.
+ *
+ * @author f1oat
+ */
+public class DeviceWatcher {
+
+    // Same order as MidiHandler.getDevices()
+    private static final boolean[] OUTPUT = {false, true, true, false, true};
+
+    private final MidiHandler midi;
+    private final Supplier<GatewayConfig.Route> route;
+    private final Runnable listener = this::check;
+    private boolean lost = false;
+    private long reconnectCount = 0;
+
+    public DeviceWatcher(MidiHandler midi, Supplier<GatewayConfig.Route> route) {
+        this.midi = midi;
+        this.route = route;
+    }
+
+    /**
+     * Watches until the process exits; the scan period is shared by all the watchers
+     * @param periodMs delay between two scans of the device list, 0 to only
+     * react to explicit MidiDeviceRegistry.refresh() calls
+     */
+    public void start(long periodMs) {
+        MidiDeviceRegistry registry = MidiDeviceRegistry.getInstance();
+        registry.removeListener(listener);
+        registry.addListener(listener);
+        registry.setRefreshPeriod(periodMs);
+    }
+
+    /**
+     * Forgets a lost gateway, to be called before the user stops or reconfigures it
+     */
+    public synchronized void cancel() {
+        lost = false;
+    }
+
+    public synchronized boolean isLost() {
+        return lost;
+    }
+
+    public synchronized long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    /**
+     * Called on each change of the device list
+     */
+    public synchronized void check() {
+        if (!midi.isRunning() && !lost) {
+            return;
+        }
+        MidiDeviceRegistry registry = MidiDeviceRegistry.getInstance();
+        GatewayConfig.Route r = route.get();
+        MidiDevice[] current = midi.getDevices();
+        boolean present = true;
+        boolean stale = false;
+        for (int i = 0; i < OUTPUT.length; i++) {
+            MidiDevice device = registry.find(r.getDevice(i), OUTPUT[i]);
+            if (device == null) {
+                present = false;
+            } else if (device != current[i]) {
+                stale = true;   // Gone and back between two scans
+            }
+        }
+
+        Logger logger = Logger.getLogger(DeviceWatcher.class.getName());
+        if (!present) {
+            synchronized (midi) {
+                if (midi.isRunning()) {
+                    logger.log(Level.WARNING, "{0}: MIDI device lost, waiting for it to come back", r.getName());
+                    midi.stop();
+                    lost = true;
+                }
+            }
+            return;
+        }
+        if (lost || stale) {
+            synchronized (midi) {
+                // Not interleaved with a stop or connect from the GUI
+                r.connect(midi);
+                midi.start();
+                lost = !midi.isRunning();
+            }
+            if (!lost) {
+                reconnectCount++;
+                logger.log(Level.INFO, "{0}: MIDI devices reconnected", r.getName());
+            }
+        }
+    }
+}
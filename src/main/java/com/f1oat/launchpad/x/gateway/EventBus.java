@@ -0,0 +1,398 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Ring of preallocated event slots filled by a MIDI receiver and read by
+ * any number of consumers, each at its own pace. SysEx bodies are copied
+ * into a shared off-heap SysexArena, one region per slot; longer messages
+ * are kept by reference.
+ * Each consumer is drained by its own thread, parked while idle; publishing
+ * only unparks it. A consumer may follow several buses in time stamp order. Publishing never waits: a consumer that falls more than
+ * one ring behind skips the overwritten events and counts them as lost. Consumers copy an
+ * event out of its slot under an optimistic read, so neither side locks.
+ * Only one thread at a time may publish.
+ *
+ * @author f1oat
+ */
+public class EventBus {
+
+    public interface Handler {
+        void onShort(int status, int data1, int data2, long nanos);
+
+        /**
+         * @param data only valid during the call
+         */
+        void onMessage(byte[] data, int length, long nanos);
+    }
+
+    private static final int MESSAGE = -1;     // Slot holds bytes, not a packed short message
+    private static final long SYNC_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int mask;
+    private final int maxSysex;
+    private final long[] seqs;
+    private final int[] shorts;
+    private final int[] lengths;
+    private final long[] times;
+    private final byte[][] large;
+    private final StampedLock[] locks;
+    private final SysexArena arena;
+
+    private volatile long published = 0;        // Sequence of the next event
+    private volatile Cursor[] cursors = new Cursor[0];
+
+    /**
+     * @param capacity number of slots, rounded up to a power of 2
+     * @param maxSysex arena bytes per slot
+     */
+    public EventBus(int capacity, int maxSysex) {
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.maxSysex = maxSysex;
+        seqs = new long[size];
+        shorts = new int[size];
+        lengths = new int[size];
+        times = new long[size];
+        large = new byte[size][];
+        locks = new StampedLock[size];
+        for (int i = 0; i < size; i++) {
+            seqs[i] = -1;
+            locks[i] = new StampedLock();
+        }
+        arena = new SysexArena(size, maxSysex);
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    public void publishShort(int status, int data1, int data2, long nanos) {
+        long seq = published;
+        int i = (int) seq & mask;
+        StampedLock lock = locks[i];
+        long stamp = lock.writeLock();     // Never contended, consumers only read optimistically
+        seqs[i] = seq;
+        shorts[i] = ((status & 0xFF) << 16) | ((data1 & 0xFF) << 8) | (data2 & 0xFF);
+        lengths[i] = 3;
+        times[i] = nanos;
+        large[i] = null;
+        lock.unlockWrite(stamp);
+        publish(seq);
+    }
+
+    /**
+     * @param data copied if it fits in a slot, otherwise kept and must not be modified by the caller
+     */
+    public void publish(byte[] data, int length, long nanos) {
+        long seq = published;
+        int i = (int) seq & mask;
+        StampedLock lock = locks[i];
+        long stamp = lock.writeLock();
+        seqs[i] = seq;
+        shorts[i] = MESSAGE;
+        lengths[i] = length;
+        times[i] = nanos;
+        if (length <= maxSysex) {
+            arena.put(i, data, length);
+            large[i] = null;
+        } else {
+            large[i] = data;
+        }
+        lock.unlockWrite(stamp);
+        publish(seq);
+    }
+
+    private void publish(long seq) {
+        published = seq + 1;
+        for (Cursor c : cursors) {
+            Consumer owner = c.owner;
+            if (owner.parked) {
+                LockSupport.unpark(owner.thread);   // Neither allocates nor locks
+            }
+        }
+    }
+
+    /**
+     * Adds a consumer, drained by its own daemon thread.
+     * It only sees the events published from now on.
+     */
+    public Consumer subscribe(String name, Handler handler) {
+        return new Consumer(name, new EventBus[]{this}, new Handler[]{handler});
+    }
+
+    /**
+     * Adds a consumer of several buses, drained by one daemon thread that
+     * hands their events over in time stamp order
+     */
+    public static Consumer subscribe(String name, EventBus[] buses, Handler[] handlers) {
+        return new Consumer(name, buses, handlers);
+    }
+
+    /**
+     * Removes a consumer and stops its thread, pending events are dropped
+     */
+    public void unsubscribe(Consumer c) {
+        c.close();
+    }
+
+    private synchronized void add(Cursor c) {
+        Cursor[] list = Arrays.copyOf(cursors, cursors.length + 1);
+        list[cursors.length] = c;
+        cursors = list;
+    }
+
+    private synchronized void remove(Cursor c) {
+        Cursor[] list = new Cursor[cursors.length];
+        int n = 0;
+        for (Cursor other : cursors) {
+            if (other != c) {
+                list[n++] = other;
+            }
+        }
+        cursors = Arrays.copyOf(list, n);
+    }
+
+    /**
+     * Waits until every consumer has handled the events published so far
+     * @return false on timeout
+     */
+    public boolean sync(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        boolean done = true;
+        for (Cursor c : cursors) {
+            done &= c.owner.sync(Math.max(0, deadline - System.currentTimeMillis()));
+        }
+        return done;
+    }
+
+    public long getLostCount() {
+        long lost = 0;
+        for (Cursor c : cursors) {
+            lost += c.lost;
+        }
+        return lost;
+    }
+
+    /**
+     * Read position of a consumer in one bus, with the next event once loaded
+     */
+    private class Cursor {
+        private final Consumer owner;
+        private final Handler handler;
+        private final SysexArena.Reader reader = arena.newReader();
+        private final byte[] scratch = new byte[Math.max(3, maxSysex)];
+        private long next = published;
+        private volatile long handled = next;
+        private volatile long lost = 0;
+
+        // Loaded event
+        private boolean ready = false;
+        private int msg;
+        private int length;
+        private long nanos;
+        private byte[] data;
+
+        Cursor(Consumer owner, Handler handler) {
+            this.owner = owner;
+            this.handler = handler;
+        }
+
+        EventBus bus() {
+            return EventBus.this;
+        }
+
+        boolean hasPending() {
+            return next < published;
+        }
+
+        /**
+         * Loads the next event, skipping the overwritten ones
+         * @return false if there is none
+         */
+        boolean peek() {
+            if (ready) {
+                return true;
+            }
+            long end;
+            while (next < (end = published)) {
+                if (end - next > mask + 1) {
+                    lost += end - (mask + 1) - next;   // Overrun, resume at the oldest slot still held
+                    next = end - (mask + 1);
+                }
+                if (load(next)) {
+                    ready = true;
+                    return true;
+                }
+                lost++;
+                next++;
+            }
+            handled = next;
+            return false;
+        }
+
+        private boolean load(long seq) {
+            int i = (int) seq & mask;
+            StampedLock lock = locks[i];
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0) {
+                return false;       // Being overwritten
+            }
+            long s = seqs[i];
+            msg = shorts[i];
+            length = lengths[i];
+            nanos = times[i];
+            data = large[i];
+            if (data == null && msg == MESSAGE) {
+                length = Math.max(0, Math.min(length, maxSysex));  // May be torn until validated
+                reader.get(i, scratch, length);
+                data = scratch;
+            }
+            return lock.validate(stamp) && s == seq;
+        }
+
+        /**
+         * Hands the loaded event over
+         */
+        void dispatch() {
+            ready = false;
+            if (msg == MESSAGE) {
+                handler.onMessage(data, length, nanos);
+            } else {
+                handler.onShort(msg >> 16, (msg >> 8) & 0xFF, msg & 0xFF, nanos);
+            }
+            data = null;
+            handled = ++next;
+        }
+    }
+
+    public static class Consumer implements Runnable {
+        private final Cursor[] cursors;
+        private final Thread thread;
+        private volatile boolean parked = false;
+        private volatile boolean closed = false;
+
+        private Consumer(String name, EventBus[] buses, Handler[] handlers) {
+            cursors = new Cursor[buses.length];
+            for (int i = 0; i < buses.length; i++) {
+                cursors[i] = buses[i].new Cursor(this, handlers[i]);
+                buses[i].add(cursors[i]);
+            }
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                drain();
+                parked = true;
+                // Checked after raising the flag, a concurrent publish either sees it or is seen here
+                if (!hasPending() && !closed) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+            }
+        }
+
+        private void drain() {
+            Cursor oldest;
+            while ((oldest = select()) != null) {
+                oldest.dispatch();
+            }
+        }
+
+        /**
+         * @return the cursor holding the oldest loaded event, null if none
+         */
+        private Cursor select() {
+            Cursor oldest = null;
+            for (Cursor c : cursors) {
+                if (c.peek() && (oldest == null || c.nanos - oldest.nanos < 0)) {
+                    oldest = c;
+                }
+            }
+            if (oldest != null && cursors.length > 1) {
+                // Events published before the one just loaded are visible now
+                for (Cursor c : cursors) {
+                    if (!c.ready && c.peek() && c.nanos - oldest.nanos < 0) {
+                        oldest = c;
+                    }
+                }
+            }
+            return oldest;
+        }
+
+        private boolean hasPending() {
+            for (Cursor c : cursors) {
+                if (c.hasPending()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Waits for the events published so far to be handled
+         */
+        public boolean sync(long timeoutMs) {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            for (Cursor c : cursors) {
+                long target = c.bus().published;
+                while (c.handled < target && !closed) {
+                    if (System.currentTimeMillis() >= deadline) {
+                        return false;
+                    }
+                    LockSupport.unpark(thread);
+                    LockSupport.parkNanos(SYNC_POLL_NANOS);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Removes the consumer from its buses and stops its thread, pending events are dropped
+         */
+        public void close() {
+            for (Cursor c : cursors) {
+                c.bus().remove(c);
+            }
+            closed = true;
+            LockSupport.unpark(thread);
+        }
+
+        public long getLostCount() {
+            long lost = 0;
+            for (Cursor c : cursors) {
+                lost += c.lost;
+            }
+            return lost;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs side work (recording, notifications...) away from the MIDI
+ * callback threads, which only translate and queue. Work is submitted to
+ * lanes: tasks of a lane run one at a time, in submission order.
+ * Lanes run on virtual threads when the JVM has them (Java 21 and later),
+ * on a small pool of daemon threads otherwise.
+ *
+ * @author f1oat
+ */
+public class EventRuntime {
+
+    private static final EventRuntime instance = new EventRuntime();
+    private static final int POOL_SIZE = 2;
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+
+    /**
+     * Serial executor, tasks never run concurrently and keep their order
+     */
+    public class Lane implements Executor {
+        private final String name;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private Lane(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException ex) {
+                        Logger.getLogger(EventRuntime.class.getName()).log(Level.SEVERE, name, ex);
+                    }
+                }
+                scheduled.set(false);
+            } while (!tasks.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        /**
+         * Waits for the tasks submitted so far
+         * @return false on timeout
+         */
+        public boolean sync(long timeoutMs) {
+            CountDownLatch done = new CountDownLatch(1);
+            execute(done::countDown);
+            try {
+                return done.await(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private EventRuntime() {
+        ExecutorService e = null;
+        try {
+            // Java 8 build: virtual threads can only be reached by reflection
+            e = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            e = null;
+        }
+        virtual = (e != null);
+        executor = virtual ? e : Executors.newFixedThreadPool(POOL_SIZE, (r) -> {
+            Thread t = new Thread(r, "Gateway events");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static EventRuntime getInstance() {
+        return instance;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public Lane newLane(String name) {
+        return new Lane(name);
+    }
+}
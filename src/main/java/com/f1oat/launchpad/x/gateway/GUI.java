@@ -15,8 +15,6 @@
  */
 package com.f1oat.launchpad.x.gateway;
 
-import com.electronwill.nightconfig.core.ConfigSpec;
-import com.electronwill.nightconfig.core.file.FileConfig;
 import com.vortexel.swingswag.GBC;
 import com.vortexel.swingswag.JSpacer;
 
@@ -25,9 +23,7 @@ import javax.sound.midi.MidiUnavailableException;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyEvent;
-import java.io.File;
-import java.io.IOException;
-import java.util.logging.Logger;
+import java.util.Map;
 
 /**
  *
@@ -35,16 +31,30 @@ import java.util.logging.Logger;
  */
 public class GUI extends javax.swing.JFrame implements iNotifier {
 
-    private static final String APP_NAME = "Launchpad-X-gateway";
-    private static final String CONFIG_FILE = "config.toml";
+    private static final int REFRESH_MS = 33;     // Pad mirror refresh period
+    private static final int STATUS_MS = 500;     // Stats readout refresh period
 
     MidiHandler myMidi = new MidiHandler();
-    private final FileConfig cfg;
-    
+    private final GatewayConfig cfg;
+    private final DeviceWatcher watcher;
+    private final Map<String, MidiHandler> extraRoutes;
+    private final Timer refreshTimer = new Timer(REFRESH_MS, (evt) -> refreshMirror());
+    private long lastStatus = 0;
+
     public void setPadColor(int index, int r, int g, int b) {
         this.jPanelKeyboard.setPadColor(index, r, g, b);
     }
-    
+
+    private void refreshMirror() {
+        myMidi.getLedState().poll(this::setPadColor);
+        long now = System.currentTimeMillis();
+        boolean active = myMidi.getLedState().pollActivity() || myMidi.isRunning() || !extraRoutes.isEmpty();
+        if (active && now - lastStatus >= STATUS_MS) {
+            lastStatus = now;
+            udpateStatus();
+        }
+    }
+
     /**
      * Creates new form GUI
      */
@@ -52,46 +62,38 @@ public class GUI extends javax.swing.JFrame implements iNotifier {
 
         initComponents();
         myMidi.setGUI(this);
+        myMidi.getMetrics().register("main");
         System.out.println("Java version " + System.getProperty("java.version"));
 
-        ConfigSpec spec = new ConfigSpec();
-        spec.define("main.fl_in", "FL_to_LPX");
-        spec.define("main.fl_out", "LPX_to_FL");
-        spec.define("main.fl_out_native", "LPX_to_FL (Native)");
-        spec.define("main.lpx_in", "MIDIIN2 (LPX MIDI)");
-        spec.define("main.lpx_out", "LPX MIDI");
-
-        File cfgFile = new File(getConfigFile());
-        try {
-            cfgFile.getParentFile().mkdirs();
-            cfgFile.createNewFile();
-        } catch (IOException e) {
-            Logger.getLogger(GUI.class.getName()).log(java.util.logging.Level.SEVERE, null, e);
-        }
-
-        cfg = FileConfig.of(cfgFile);
-        cfg.load();
-        spec.correct(cfg);
+        cfg = new GatewayConfig();
 
         jComboBox_FL_in.getModel().setSelectedItem(cfg.get("main.fl_in"));
         jComboBox_FL_out.getModel().setSelectedItem(cfg.get("main.fl_out"));
         jComboBox_FL_out_native.getModel().setSelectedItem(cfg.get("main.fl_out_native"));
         jComboBox_LPX_in.getModel().setSelectedItem(cfg.get("main.lpx_in"));
         jComboBox_LPX_out.getModel().setSelectedItem(cfg.get("main.lpx_out"));
+        cfg.apply(myMidi);
+        watcher = cfg.watch(myMidi);
+        extraRoutes = cfg.startExtraRoutes();
 
-        cfg.save();
-    }
-
-    public String getConfigFile() {
-        String configFile;
-        String osName = System.getProperty("os.name").toLowerCase();
-        if (osName.startsWith("windows")) {
-            configFile = System.getenv("APPDATA") + "/" + APP_NAME;
-        } else {
-            configFile = System.getProperty("user.home") + "/.config/" + APP_NAME;
+        for (String name : cfg.getCurves().keySet()) {
+            jComboBoxVelocity.addItem(name);
         }
-        configFile = configFile + "/" + CONFIG_FILE;
-        return configFile;
+        jComboBoxVelocity.setSelectedItem(myMidi.getVelocityCurve().getName());
+        jComboBoxVelocity.addActionListener((evt) -> {
+            String name = (String) jComboBoxVelocity.getSelectedItem();
+            VelocityCurve curve = cfg.getCurve(name);
+            myMidi.setVelocityCurve(curve);
+            extraRoutes.values().forEach((midi) -> midi.setVelocityCurve(curve));
+            cfg.set("main.velocity_curve", name);
+            cfg.save();
+        });
+        if (!extraRoutes.isEmpty()) {
+            udpateStatus();
+            pack();     // One status line per route
+        }
+
+        refreshTimer.start();
     }
 
     /**
@@ -111,6 +113,8 @@ public class GUI extends javax.swing.JFrame implements iNotifier {
         JLabel jLabel5 = new JLabel("IN from LPX");
         JLabel jLabel6 = new JLabel("OUT to LPX");
         JLabel jLabel7 = new JLabel("OUT to FL-Studio (Native)");
+        JLabel jLabel8 = new JLabel("Velocity curve");
+        jComboBoxVelocity = new JComboBox<>();
 
         JLabel jLabel3 = new javax.swing.JLabel("Launchpad-X / FL-Studio Gateway");
         jLabel3.setFont(new java.awt.Font("Tahoma", 0, 18)); // NOI18N
@@ -124,6 +128,8 @@ public class GUI extends javax.swing.JFrame implements iNotifier {
         jPanelMidiIO = new JPanel();
         jPanelButtonPanel = new JPanel();
         jPanelKeyboard = new JPanelKeyboard();
+        jLabelStatus = new JLabel(" ");
+        jLabelStatus.setFont(jLabelStatus.getFont().deriveFont(10f));
 
         jRadioButtonModeProg = new javax.swing.JRadioButton();
         jRadioButtonModeNative = new javax.swing.JRadioButton();
@@ -141,6 +147,7 @@ public class GUI extends javax.swing.JFrame implements iNotifier {
 
         jButtonApply.setText("Apply");
         jButtonApply.addActionListener((evt) -> {
+            watcher.cancel();
             myMidi.stop();
             configure();
             if (jToggleButtonRun.isSelected()) {
@@ -151,6 +158,7 @@ public class GUI extends javax.swing.JFrame implements iNotifier {
         jButtonRefresh.setText("Refresh");
         jButtonRefresh.setToolTipText("Refresh the list of MIDI devices");
         jButtonRefresh.addActionListener((evt) -> {
+            MidiDeviceRegistry.getInstance().refresh();
             refreshComboBox(jComboBox_FL_in);
             refreshComboBox(jComboBox_FL_out);
             refreshComboBox(jComboBox_LPX_in);
@@ -160,6 +168,7 @@ public class GUI extends javax.swing.JFrame implements iNotifier {
 
         jToggleButtonRun.setText("Connect");
         jToggleButtonRun.addActionListener((evt) -> {
+            watcher.cancel();
             if (jToggleButtonRun.isSelected()) {
                 configure();
                 myMidi.start();
@@ -235,6 +244,8 @@ public class GUI extends javax.swing.JFrame implements iNotifier {
             cB.move(0, 1).put(jComboBox_LPX_in);
             cL.move(0, 1).put(jLabel6);
             cB.move(0, 1).put(jComboBox_LPX_out);
+            cL.move(0, 1).put(jLabel8);
+            cB.move(0, 1).put(jComboBoxVelocity);
         }
 
         {
@@ -262,6 +273,8 @@ public class GUI extends javax.swing.JFrame implements iNotifier {
         c.at(0, 2).put(jPanelButtonPanel);
         c.fill(GBC.BOTH);
         c.at(0, 3).put(jPanelKeyboard);
+        c.fill(GBC.HORIZONTAL);
+        c.at(0, 4).put(jLabelStatus);
 
         pack();
     }
@@ -288,7 +301,12 @@ public class GUI extends javax.swing.JFrame implements iNotifier {
     /**
      * @param args the command line arguments
      */
-    public static void main(String args[]) throws MidiUnavailableException {
+    public static void main(String args[]) throws MidiUnavailableException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--headless")) {
+            HeadlessGateway.main(args);
+            return;
+        }
+
         /* Set the Nimbus look and feel */
         try {
             for (javax.swing.UIManager.LookAndFeelInfo info : javax.swing.UIManager.getInstalledLookAndFeels()) {
@@ -316,10 +334,12 @@ public class GUI extends javax.swing.JFrame implements iNotifier {
     private javax.swing.JComboBox<String> jComboBox_FL_out_native;
     private javax.swing.JComboBox<String> jComboBox_LPX_in;
     private javax.swing.JComboBox<String> jComboBox_LPX_out;
+    private JComboBox<String> jComboBoxVelocity;
     private JPanel jPanel1;
     private JPanel jPanelMidiIO;
     private JPanel jPanelButtonPanel;
     private JPanelKeyboard jPanelKeyboard;
+    private JLabel jLabelStatus;
     private javax.swing.JRadioButton jRadioButtonModeNative;
     private javax.swing.JRadioButton jRadioButtonModeProg;
     private javax.swing.JToggleButton jToggleButtonRun;
@@ -327,11 +347,33 @@ public class GUI extends javax.swing.JFrame implements iNotifier {
 
     @Override
     public void udpateStatus() {
+        if (extraRoutes == null || extraRoutes.isEmpty()) {
+            jLabelStatus.setText(myMidi.getMetrics().getSummary());
+            return;
+        }
+        StringBuilder text = new StringBuilder("<html>main: ").append(myMidi.getMetrics().getSummary());
+        for (Map.Entry<String, MidiHandler> route : extraRoutes.entrySet()) {
+            text.append("<br>").append(route.getKey()).append(": ").append(route.getValue().getMetrics().getSummary());
+        }
+        jLabelStatus.setText(text.append("</html>").toString());
     }
 
     @Override
     public void notifyError() {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(this::notifyError);
+            return;
+        }
         this.jToggleButtonRun.setSelected(false);
         JOptionPane.showMessageDialog(new JFrame(), "MIDI error", "Dialog", JOptionPane.ERROR_MESSAGE);
     }
+
+    @Override
+    public void notifyRunning(boolean running) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> notifyRunning(running));
+            return;
+        }
+        this.jToggleButtonRun.setSelected(running);     // Also follows the device watcher
+    }
 }
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import com.electronwill.nightconfig.core.ConfigSpec;
+import com.electronwill.nightconfig.core.UnmodifiableConfig;
+import com.electronwill.nightconfig.core.file.FileConfig;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * config.toml handling, shared by the GUI and the headless gateway.
+ * The main section holds the settings and the devices of the first
+ * gateway, each [[gateway]] entry the devices of one more Launchpad.
+ *
+ * @author f1oat
+ */
+public class GatewayConfig {
+
+    /**
+     * Device names of one gateway
+     */
+    public static class Route {
+        private final String name;
+        private final String[] devices;
+
+        public Route(String name, String fl_in, String fl_out, String fl_out_native, String lpx_in, String lpx_out) {
+            this.name = name;
+            this.devices = new String[]{fl_in, fl_out, fl_out_native, lpx_in, lpx_out};
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @param i position in MidiHandler.getDevices()
+         */
+        public String getDevice(int i) {
+            return devices[i];
+        }
+
+        public void connect(MidiHandler midi) {
+            midi.setByName(devices[0], devices[1], devices[2], devices[3], devices[4]);
+        }
+    }
+
+    private static final String APP_NAME = "Launchpad-X-gateway";
+    private static final String CONFIG_FILE = "config.toml";
+
+    private final FileConfig cfg;
+    private final boolean readOnly;
+
+    public GatewayConfig() {
+        this(false);
+    }
+
+    /**
+     * Reads config.toml without creating, correcting or saving it, for tools
+     * that must not touch the user's settings. Missing or invalid keys take
+     * their default value in memory.
+     */
+    public static GatewayConfig loadReadOnly() {
+        return new GatewayConfig(true);
+    }
+
+    private GatewayConfig(boolean readOnly) {
+        this.readOnly = readOnly;
+        ConfigSpec spec = new ConfigSpec();
+        spec.define("main.fl_in", "FL_to_LPX");
+        spec.define("main.fl_out", "LPX_to_FL");
+        spec.define("main.fl_out_native", "LPX_to_FL (Native)");
+        spec.define("main.lpx_in", "MIDIIN2 (LPX MIDI)");
+        spec.define("main.lpx_out", "LPX MIDI");
+        spec.defineInRange("main.led_fps", 60, 0, 1000);
+        spec.define("main.trace", false);
+        spec.defineInRange("main.pressure_min_delta", 2, 1, 127);
+        spec.defineInRange("main.pressure_max_rate", 100, 0, 10000);
+        spec.defineInRange("main.queue_size", 256, 2, 65536);
+        spec.define("main.lpx_out_overflow", "drop_oldest");
+        spec.define("main.fl_out_overflow", "block");
+        spec.define("main.fl_out_native_overflow", "block");
+        spec.defineInRange("main.palette_match", 0, -1, 110);
+        spec.define("main.record_file", "");
+        spec.defineInRange("main.reconnect_period_ms", 1000, 0, 60000);
+        spec.defineInRange("main.writer_threads", 0, 0, 64);     // 0: 3 per gateway
+        spec.defineList("gateway", Collections.emptyList(), (o) -> o instanceof UnmodifiableConfig);
+        spec.defineList("mapping", Collections.emptyList(), (o) -> o instanceof UnmodifiableConfig);
+        spec.defineList("curve", Collections.emptyList(), (o) -> o instanceof UnmodifiableConfig);
+        spec.define("main.velocity_curve", "linear");
+        spec.define("main.pressure_curve", "linear");
+
+        File cfgFile = new File(getConfigFile());
+        if (readOnly) {
+            cfg = FileConfig.of(cfgFile);
+            if (cfgFile.isFile()) {
+                cfg.load();     // Would create a missing file
+            }
+            spec.correct(cfg);
+            return;
+        }
+        try {
+            cfgFile.getParentFile().mkdirs();
+            cfgFile.createNewFile();
+        } catch (IOException e) {
+            Logger.getLogger(GatewayConfig.class.getName()).log(Level.SEVERE, null, e);
+        }
+
+        cfg = FileConfig.of(cfgFile);
+        cfg.load();
+        spec.correct(cfg);
+        cfg.save();
+    }
+
+    public static String getConfigFile() {
+        String configFile;
+        String osName = System.getProperty("os.name").toLowerCase();
+        if (osName.startsWith("windows")) {
+            configFile = System.getenv("APPDATA") + "/" + APP_NAME;
+        } else {
+            configFile = System.getProperty("user.home") + "/.config/" + APP_NAME;
+        }
+        configFile = configFile + "/" + CONFIG_FILE;
+        return configFile;
+    }
+
+    public <T> T get(String path) {
+        return cfg.get(path);
+    }
+
+    public void set(String path, Object value) {
+        cfg.set(path, value);
+    }
+
+    public void save() {
+        if (readOnly) {
+            throw new IllegalStateException("Read-only configuration");
+        }
+        cfg.save();
+    }
+
+    /**
+     * Applies the tuning keys of the main section, device names excepted
+     */
+    public void apply(MidiHandler midi) {
+        int writers = cfg.getInt("main.writer_threads");
+        if (writers == 0) {
+            writers = 3 * (1 + getExtraRoutes().size());    // One per output port
+        }
+        MidiWriterPool.getInstance().setSize(writers);
+        midi.setLedFrameRate(cfg.getInt("main.led_fps"));
+        midi.setTrace(cfg.get("main.trace"));
+        midi.getPressureThinner().setMinDelta(cfg.getInt("main.pressure_min_delta"));
+        midi.getPressureThinner().setMaxRate(cfg.getInt("main.pressure_max_rate"));
+        midi.getPaletteMatcher().setMaxDistance(cfg.getInt("main.palette_match"));
+        midi.setRecordFile(cfg.get("main.record_file"));
+        midi.setPadMap(getPadMap());
+        midi.setVelocityCurve(getCurve(cfg.get("main.velocity_curve")));
+        midi.setPressureCurve(getCurve(cfg.get("main.pressure_curve")));
+        midi.setQueues(cfg.getInt("main.queue_size"), getOverflow("main.lpx_out_overflow"),
+                getOverflow("main.fl_out_overflow"), getOverflow("main.fl_out_native_overflow"));
+    }
+
+    /**
+     * Compiles the [[mapping]] rules, in order, on top of the default MK2 mapping.
+     * Keys: in ("note", "pressure" or "cc"), channel, from, to, then what
+     * changes: out (same kinds, or "none"), number, out_channel, and
+     * velocity as [[in, out], ...] breakpoints.
+     */
+    public PadMap getPadMap() {
+        PadMap map = new PadMap();
+        List<UnmodifiableConfig> rules = cfg.getOrElse("mapping", Collections.emptyList());
+        for (UnmodifiableConfig rule : rules) {
+            int command = getCommand(rule.get("in"));
+            if (command < 0) {
+                Logger.getLogger(GatewayConfig.class.getName()).log(Level.WARNING, "Mapping ignored, bad input kind: {0}", (Object) rule.get("in"));
+                continue;
+            }
+            int channel = rule.getIntOrElse("channel", PadMap.ANY_CHANNEL);
+            int from = rule.getIntOrElse("from", 0);
+            int to = rule.getIntOrElse("to", rule.contains("from") ? from : 127);
+            String out = rule.get("out");
+            int outCommand = (out == null) ? PadMap.SAME : "none".equals(out) ? PadMap.UNMAPPED : getCommand(out);
+            map.remap(command, channel, from, to, outCommand,
+                    rule.getIntOrElse("number", PadMap.SAME), rule.getIntOrElse("out_channel", PadMap.SAME));
+
+            List<List<Number>> velocity = rule.get("velocity");
+            if (velocity != null) {
+                map.setVelocity(command, channel, from, to, VelocityCurve.breakpoints("mapping", getPoints(velocity)));
+            }
+        }
+        return map;
+    }
+
+    private static int[][] getPoints(List<List<Number>> list) {
+        int[][] points = new int[list.size()][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new int[]{list.get(i).get(0).intValue(), list.get(i).get(1).intValue()};
+        }
+        return points;
+    }
+
+    /**
+     * @return built-in curves (linear, log, exp, fixed), then the [[curve]] entries.
+     * Keys: name, type ("log", "exp", "fixed" or "points"), amount, value, points
+     */
+    public Map<String, VelocityCurve> getCurves() {
+        Map<String, VelocityCurve> curves = new LinkedHashMap<>();
+        for (VelocityCurve c : new VelocityCurve[]{VelocityCurve.LINEAR, VelocityCurve.log("log", 4),
+            VelocityCurve.exp("exp", 2), VelocityCurve.fixed("fixed", 127)}) {
+            curves.put(c.getName(), c);
+        }
+        List<UnmodifiableConfig> entries = cfg.getOrElse("curve", Collections.emptyList());
+        for (UnmodifiableConfig e : entries) {
+            String name = e.getOrElse("name", "curve" + (curves.size() + 1));
+            Number amount = e.getOrElse("amount", 4);
+            String type = e.getOrElse("type", "points");
+            switch (type) {
+                case "log":
+                    curves.put(name, VelocityCurve.log(name, amount.doubleValue()));
+                    break;
+                case "exp":
+                    curves.put(name, VelocityCurve.exp(name, amount.doubleValue()));
+                    break;
+                case "fixed":
+                    curves.put(name, VelocityCurve.fixed(name, e.getIntOrElse("value", 127)));
+                    break;
+                case "points":
+                    curves.put(name, VelocityCurve.breakpoints(name, getPoints(e.getOrElse("points", Collections.emptyList()))));
+                    break;
+                default:
+                    Logger.getLogger(GatewayConfig.class.getName()).log(Level.WARNING, "Curve {0} ignored, bad type", name);
+            }
+        }
+        return curves;
+    }
+
+    /**
+     * @return named curve, linear if unknown
+     */
+    public VelocityCurve getCurve(String name) {
+        VelocityCurve curve = getCurves().get(name);
+        if (curve == null) {
+            Logger.getLogger(GatewayConfig.class.getName()).log(Level.WARNING, "Unknown curve {0}, using linear", name);
+            return VelocityCurve.LINEAR;
+        }
+        return curve;
+    }
+
+    private static int getCommand(String kind) {
+        if (kind == null) {
+            return -1;
+        }
+        switch (kind) {
+            case "note":
+                return ShortMessage.NOTE_ON;
+            case "pressure":
+                return ShortMessage.POLY_PRESSURE;
+            case "cc":
+                return ShortMessage.CONTROL_CHANGE;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return overflow policy of an output queue, "drop_oldest" or "block"
+     */
+    private MidiOutputQueue.eOverflow getOverflow(String path) {
+        String policy = cfg.get(path);
+        return "drop_oldest".equals(policy) ? MidiOutputQueue.eOverflow.DropOldest : MidiOutputQueue.eOverflow.Block;
+    }
+
+    public Route getMainRoute() {
+        return new Route("main", cfg.get("main.fl_in"), cfg.get("main.fl_out"), cfg.get("main.fl_out_native"),
+                cfg.get("main.lpx_in"), cfg.get("main.lpx_out"));
+    }
+
+    /**
+     * @return the [[gateway]] entries
+     */
+    public List<Route> getExtraRoutes() {
+        List<UnmodifiableConfig> entries = cfg.getOrElse("gateway", Collections.emptyList());
+        List<Route> routes = new ArrayList<>();
+        for (UnmodifiableConfig e : entries) {
+            routes.add(new Route(e.getOrElse("name", "gateway" + (routes.size() + 1)),
+                    e.get("fl_in"), e.get("fl_out"), e.get("fl_out_native"), e.get("lpx_in"), e.get("lpx_out")));
+        }
+        return routes;
+    }
+
+    /**
+     * Creates, connects and starts one gateway per [[gateway]] entry, with the settings of the main section
+     * @return gateways by name
+     */
+    public Map<String, MidiHandler> startExtraRoutes() {
+        Map<String, MidiHandler> gateways = new LinkedHashMap<>();
+        for (Route route : getExtraRoutes()) {
+            MidiHandler midi = new MidiHandler();
+            midi.getMetrics().register(route.getName());
+            apply(midi);
+            midi.setRecordFile(null);   // The traffic log belongs to the main gateway
+            route.connect(midi);
+            midi.start();
+            if (!midi.isRunning()) {
+                Logger.getLogger(GatewayConfig.class.getName()).log(Level.WARNING, "{0}: MIDI error, check the device names", route.getName());
+            }
+            watch(midi, () -> route);
+            gateways.put(route.getName(), midi);
+        }
+        return gateways;
+    }
+
+    /**
+     * Selects the devices named in the main section
+     */
+    public void connect(MidiHandler midi) {
+        getMainRoute().connect(midi);
+    }
+
+    /**
+     * Starts reconnecting the devices of the main section when they come back after a loss
+     */
+    public DeviceWatcher watch(MidiHandler midi) {
+        return watch(midi, this::getMainRoute);
+    }
+
+    /**
+     * @param route read on each device change, so that edits are taken into account
+     */
+    public DeviceWatcher watch(MidiHandler midi, Supplier<Route> route) {
+        DeviceWatcher watcher = new DeviceWatcher(midi, route);
+        watcher.start(cfg.getInt("main.reconnect_period_ms"));
+        return watcher;
+    }
+}
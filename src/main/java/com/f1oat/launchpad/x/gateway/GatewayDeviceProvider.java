@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.spi.MidiDeviceProvider;
+
+/**
+ * Publishes in-process loopback ports to javax.sound.midi, so that they are
+ * listed by MidiSystem like driver ports. Messages sent to one of them are
+ * handed over in memory to its transmitters, on the sender thread.
+ * These ports only exist inside this JVM: other applications, FL-Studio
+ * included, cannot see them.
+ *
+ * @author f1oat
+ */
+public class GatewayDeviceProvider extends MidiDeviceProvider {
+
+    public static final String PREFIX = "Gateway ";
+
+    // Shared by every provider instance, MidiSystem may create several
+    private static final VirtualMidiDevice[] DEVICES = {
+        new VirtualMidiDevice(PREFIX + "FL_to_LPX", "In-process loopback port"),
+        new VirtualMidiDevice(PREFIX + "LPX_to_FL", "In-process loopback port"),
+        new VirtualMidiDevice(PREFIX + "LPX_to_FL (Native)", "In-process loopback port"),
+        new VirtualMidiDevice(PREFIX + "Loopback", "In-process loopback port")
+    };
+
+    private static final MidiDevice.Info[] INFOS = new MidiDevice.Info[DEVICES.length];
+
+    static {
+        for (int i = 0; i < DEVICES.length; i++) {
+            INFOS[i] = DEVICES[i].getDeviceInfo();
+        }
+    }
+
+    @Override
+    public MidiDevice.Info[] getDeviceInfo() {
+        return INFOS.clone();
+    }
+
+    @Override
+    public MidiDevice getDevice(MidiDevice.Info info) {
+        for (VirtualMidiDevice device : DEVICES) {
+            if (device.getDeviceInfo() == info) {
+                return device;
+            }
+        }
+        throw new IllegalArgumentException("Not a gateway device: " + info);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Message counters and end-to-end latencies of both directions:
+ * pad input (Launchpad-X to FL-Studio) and LED output (FL-Studio to
+ * Launchpad-X), measured from the receiver entry to the hand-off to the
+ * outgoing Receiver.
+ *
+ * @author f1oat
+ */
+public class GatewayMetrics implements GatewayMetricsMBean {
+
+    private final LatencyHistogram padLatency = new LatencyHistogram();
+    private final LatencyHistogram ledLatency = new LatencyHistogram();
+    private final AtomicLong padMessages = new AtomicLong();
+    private final AtomicLong ledMessages = new AtomicLong();
+    private final AtomicLong ledFrames = new AtomicLong();
+    private final AtomicLong sysexBytesIn = new AtomicLong();
+    private final AtomicLong sysexBytesOut = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private ObjectName objectName = null;
+
+    public void padMessage() {
+        padMessages.incrementAndGet();
+    }
+
+    public void padSent(long since) {
+        padLatency.record(System.nanoTime() - since);
+    }
+
+    public void ledMessage(int sysexBytes) {
+        ledMessages.incrementAndGet();
+        sysexBytesIn.addAndGet(sysexBytes);
+    }
+
+    public void ledSent(long since, int sysexBytes) {
+        ledLatency.record(System.nanoTime() - since);
+        ledFrames.incrementAndGet();
+        sysexBytesOut.addAndGet(sysexBytes);
+    }
+
+    public void dropped() {
+        dropped.incrementAndGet();
+    }
+
+    public void error() {
+        errors.incrementAndGet();
+    }
+
+    public LatencyHistogram getPadLatency() {
+        return padLatency;
+    }
+
+    public LatencyHistogram getLedLatency() {
+        return ledLatency;
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server
+     */
+    public synchronized void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            unregister();
+            objectName = new ObjectName("com.f1oat.launchpad.x.gateway:type=GatewayMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+        } catch (JMException ex) {
+            Logger.getLogger(GatewayMetrics.class.getName()).log(Level.WARNING, null, ex);
+            objectName = null;
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException ex) {
+            Logger.getLogger(GatewayMetrics.class.getName()).log(Level.WARNING, null, ex);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public long getPadMessages() {
+        return padMessages.get();
+    }
+
+    @Override
+    public long getLedMessages() {
+        return ledMessages.get();
+    }
+
+    @Override
+    public long getLedFrames() {
+        return ledFrames.get();
+    }
+
+    @Override
+    public long getSysexBytesIn() {
+        return sysexBytesIn.get();
+    }
+
+    @Override
+    public long getSysexBytesOut() {
+        return sysexBytesOut.get();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return dropped.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public long getPadLatencyP50() {
+        return padLatency.getPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getPadLatencyP99() {
+        return padLatency.getPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getPadLatencyP999() {
+        return padLatency.getPercentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getPadLatencyMax() {
+        return padLatency.getMax() / 1000;
+    }
+
+    @Override
+    public long getLedLatencyP50() {
+        return ledLatency.getPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getLedLatencyP99() {
+        return ledLatency.getPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getLedLatencyP999() {
+        return ledLatency.getPercentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getLedLatencyMax() {
+        return ledLatency.getMax() / 1000;
+    }
+
+    @Override
+    public String getSummary() {
+        return String.format("Pads %d, p50/p99 %d/%d us | LEDs %d frames, p50/p99 %d/%d us | %d dropped, %d errors",
+                getPadMessages(), getPadLatencyP50(), getPadLatencyP99(),
+                getLedFrames(), getLedLatencyP50(), getLedLatencyP99(),
+                getDroppedMessages(), getErrors());
+    }
+
+    @Override
+    public void reset() {
+        padLatency.reset();
+        ledLatency.reset();
+        padMessages.set(0);
+        ledMessages.set(0);
+        ledFrames.set(0);
+        sysexBytesIn.set(0);
+        sysexBytesOut.set(0);
+        dropped.set(0);
+        errors.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+/**
+ * JMX view of GatewayMetrics, latencies in microseconds.
+ *
+ * @author f1oat
+ */
+public interface GatewayMetricsMBean {
+    public long getPadMessages();
+    public long getLedMessages();
+    public long getLedFrames();
+    public long getSysexBytesIn();
+    public long getSysexBytesOut();
+    public long getDroppedMessages();
+    public long getErrors();
+
+    public long getPadLatencyP50();
+    public long getPadLatencyP99();
+    public long getPadLatencyP999();
+    public long getPadLatencyMax();
+    public long getLedLatencyP50();
+    public long getLedLatencyP99();
+    public long getLedLatencyP999();
+    public long getLedLatencyMax();
+
+    public String getSummary();
+    public void reset();
+}
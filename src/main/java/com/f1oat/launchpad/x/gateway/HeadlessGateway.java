@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the gateway without any Swing component, using the devices named in
+ * config.toml. Stops on Ctrl-C.
+ *
+ * @author f1oat
+ */
+public class HeadlessGateway {
+
+    public static void main(String args[]) throws InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        Logger logger = Logger.getLogger(HeadlessGateway.class.getName());
+        logger.log(Level.INFO, "Java version {0}, config {1}",
+                new Object[]{System.getProperty("java.version"), GatewayConfig.getConfigFile()});
+
+        GatewayConfig cfg = new GatewayConfig();
+        MidiHandler midi = new MidiHandler();
+        midi.getMetrics().register("main");
+        cfg.apply(midi);
+        cfg.connect(midi);
+        midi.start();
+        cfg.watch(midi);
+        Map<String, MidiHandler> extra = cfg.startExtraRoutes();
+        if (!midi.isRunning()) {
+            logger.log(Level.SEVERE, "MIDI error, check the device names in {0}", GatewayConfig.getConfigFile());
+            System.exit(1);
+        }
+        logger.log(Level.INFO, "Gateway running, {0} more route(s)", extra.size());
+
+        CountDownLatch done = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            midi.stop();
+            extra.values().forEach(MidiHandler::stop);
+            done.countDown();
+        }));
+        done.await();
+    }
+}
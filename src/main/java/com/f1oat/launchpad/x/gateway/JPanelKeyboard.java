@@ -16,78 +16,131 @@
 package com.f1oat.launchpad.x.gateway;
 
 import java.awt.Color;
-import java.awt.Dimension;
 import java.awt.Font;
-import java.awt.GridLayout;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.event.MouseListener;
-import javax.swing.JButton;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
+ * 9x9 pad grid painted in a single pass. A colour change only repaints the
+ * cell of the pad that changed.
  *
  * @author f1oat
  */
 public class JPanelKeyboard extends javax.swing.JPanel {
 
-    final private JButton[][] pads = new JButton[9][9]; //Declared much earlier in the program, right after the class declaration.
+    final private static int SIZE = 9;
+    final private static int GAP = 2;
+    final private Color[][] background = new Color[SIZE][SIZE];
+    final private Color[][] foreground = new Color[SIZE][SIZE];
     final private float lighting = 0.15f;
+    final private Map<Integer, Color> palette = new HashMap<>();   // Displayed colour by 7-bit RGB
+    final private static int PALETTE_MAX = 4096;
     String arrow = ">";
     String[] topRow = { "^", "v", "<", ">", "O", "S", "+", "s", "X" };
+    private Font labelFont = null;
+    private int pressedIndex = -1;
+    final private Rectangle dirtyCell = new Rectangle();
+
     /**
      * Creates new form Keyboard
      */
     public JPanelKeyboard() {
-        //super.setSize(400, 400);
-        super.setLayout(new GridLayout(9, 9));
         super.setBackground(Color.DARK_GRAY);
+        super.setOpaque(true);
+
+        Color grey = getColor(0, 0, 0);
+        for (int r = 0; r < SIZE; r++) {
+            for (int c = 0; c < SIZE; c++) {
+                background[r][c] = (r == 0) ? Color.BLACK : grey;
+                foreground[r][c] = Color.WHITE;
+            }
+        }
+
+        MouseAdapter mouseListener = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                pressedIndex = indexAt(e.getX(), e.getY());
+                if (pressedIndex < 0) {
+                    return;
+                }
+                KeyEvent evt = new KeyEvent(JPanelKeyboard.this, 0, 0, 0, pressedIndex, 'x');
+                for (KeyListener l : getKeyListeners()) {
+                    l.keyPressed(evt);
+                }
+            }
 
-        int padWidth = super.getWidth() / 9;
-        int padHeight = super.getHeight() / 9;
-        int grey = (int) (255 * lighting);
-
-        for (int r = 0; r < 9; r++) {
-            for (int c = 0; c < 9; c++) {
-                final JButton btn = new JButton();
-                btn.setPreferredSize(new Dimension(padWidth, padHeight));
-                Font newButtonFont = new Font(btn.getFont().getName(), Font.BOLD, btn.getFont().getSize());
-                btn.setFont(newButtonFont);
-
-                if (r == 0) {
-                    btn.setBackground(Color.BLACK);
-                    btn.setForeground(Color.WHITE);
-                    btn.setText(topRow[c]);
-                } else if (c == 8) {
-                    btn.setBackground(new Color(grey, grey, grey));
-                    btn.setForeground(Color.WHITE);
-                    btn.setText(arrow);
-                } else {
-                    btn.setBackground(new Color(grey, grey, grey));
-                    btn.setForeground(Color.WHITE);
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (pressedIndex < 0) {
+                    return;
+                }
+                KeyEvent evt = new KeyEvent(JPanelKeyboard.this, 0, 0, 0, pressedIndex, 'x');
+                pressedIndex = -1;
+                for (KeyListener l : getKeyListeners()) {
+                    l.keyReleased(evt);
                 }
+            }
+        };
+        super.addMouseListener(mouseListener);
+    }
+
+    private int indexAt(int x, int y) {
+        int c = x * SIZE / Math.max(1, getWidth());
+        int r = y * SIZE / Math.max(1, getHeight());
+        if (r < 0 || r >= SIZE || c < 0 || c >= SIZE) {
+            return -1;
+        }
+        return 11 + 10 * (8 - r) + c;
+    }
+
+    private Rectangle cellBounds(int row, int col, Rectangle bounds) {
+        int w = getWidth();
+        int h = getHeight();
+        int x0 = col * w / SIZE;
+        int y0 = row * h / SIZE;
+        bounds.setBounds(x0, y0, (col + 1) * w / SIZE - x0, (row + 1) * h / SIZE - y0);
+        return bounds;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-                final int index = 11 + 10 * (8 - r) + c;
-                final JPanelKeyboard panel = this;
-
-                MouseListener mouseListener = new MouseAdapter() {
-                    public void mousePressed(MouseEvent e) {
-                        for (KeyListener l : panel.getKeyListeners()) {
-                            l.keyPressed(new KeyEvent(panel, 0, 0, 0, index, 'x'));
-                        }
-                    }
-
-                    public void mouseReleased(MouseEvent mouseEvent) {
-                        for (KeyListener l : panel.getKeyListeners()) {
-                            l.keyReleased(new KeyEvent(panel, 0, 0, 0, index, 'x'));
-                        }
-                    }
-                };
-
-                btn.addMouseListener(mouseListener);
-                super.add(btn);
-                pads[r][c] = btn;
+        if (labelFont == null) {
+            labelFont = getFont().deriveFont(Font.BOLD);
+        }
+        g2.setFont(labelFont);
+        FontMetrics fm = g2.getFontMetrics();
+
+        Rectangle clip = g2.getClipBounds();
+        Rectangle cell = new Rectangle();
+        for (int r = 0; r < SIZE; r++) {
+            for (int c = 0; c < SIZE; c++) {
+                cellBounds(r, c, cell);
+                if (clip != null && !clip.intersects(cell)) {
+                    continue;
+                }
+                g2.setColor(background[r][c]);
+                g2.fillRoundRect(cell.x + GAP, cell.y + GAP, cell.width - 2 * GAP, cell.height - 2 * GAP, 6, 6);
+
+                String label = (r == 0) ? topRow[c] : (c == 8) ? arrow : null;
+                if (label != null) {
+                    g2.setColor(foreground[r][c]);
+                    g2.drawString(label,
+                            cell.x + (cell.width - fm.stringWidth(label)) / 2,
+                            cell.y + (cell.height - fm.getHeight()) / 2 + fm.getAscent());
+                }
             }
         }
     }
@@ -99,15 +152,29 @@ public class JPanelKeyboard extends javax.swing.JPanel {
             return;
         }
 
-        r = (int) (255 * lighting + (1 - lighting) * 2 * r);
-        g = (int) (255 * lighting + (1 - lighting) * 2 * g);
-        b = (int) (255 * lighting + (1 - lighting) * 2 * b);
+        Color color = getColor(r, g, b);
+        Color[][] layer = (row == 0) ? foreground : background;
+        if (layer[row][col] == color) {
+            return;
+        }
+        layer[row][col] = color;
+        repaint(cellBounds(row, col, dirtyCell));
+    }
 
-        if (row == 0) {
-            pads[row][col].setForeground(new Color(r, g, b));
-        } else {
-            pads[row][col].setBackground(new Color(r, g, b));
+    private Color getColor(int r, int g, int b) {
+        int key = (r << 16) | (g << 8) | b;
+        Color color = palette.get(key);
+        if (color == null) {
+            if (palette.size() >= PALETTE_MAX) {
+                palette.clear();
+            }
+            r = (int) (255 * lighting + (1 - lighting) * 2 * r);
+            g = (int) (255 * lighting + (1 - lighting) * 2 * g);
+            b = (int) (255 * lighting + (1 - lighting) * 2 * b);
+            color = new Color(r, g, b);
+            palette.put(key, color);
         }
+        return color;
     }
 
     /**
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram in the spirit of HdrHistogram: values below
+ * 64 ns are exact, above that each power of two is split in 32 buckets,
+ * i.e. about 3% precision. Recording does not allocate nor lock.
+ *
+ * @author f1oat
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;     // Exact range
+    private static final int HALF = SUB_COUNT / 2;          // Buckets per power of two above it
+    private static final int MAX_MAGNITUDE = 40;            // About 18 minutes
+    private static final int NB_BUCKETS = SUB_COUNT + MAX_MAGNITUDE * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NB_BUCKETS);
+    private volatile long max = 0;
+
+    static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) Math.max(0, value);
+        }
+        int magnitude = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;   // >= 1
+        if (magnitude > MAX_MAGNITUDE) {
+            return NB_BUCKETS - 1;
+        }
+        int sub = (int) (value >>> magnitude);                              // HALF..SUB_COUNT-1
+        return SUB_COUNT + (magnitude - 1) * HALF + (sub - HALF);
+    }
+
+    /**
+     * @return highest value that falls in the bucket
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int magnitude = (bucket - SUB_COUNT) / HALF + 1;
+        long sub = (bucket - SUB_COUNT) % HALF + HALF;
+        return ((sub + 1) << magnitude) - 1;
+    }
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+        if (nanos > max) {
+            max = nanos;    // Racy but good enough for a readout
+        }
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < NB_BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percentile 0..100
+     * @return latency in ns under which the given percentage of values fall
+     */
+    public long getPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < NB_BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < NB_BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        max = 0;
+    }
+}
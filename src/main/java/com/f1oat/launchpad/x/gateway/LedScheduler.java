@@ -0,0 +1,230 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces LED updates coming from FL-Studio. The last requested colour of
+ * each pad is kept in a LedStateCache, and only pads that differ from what
+ * the Launchpad-X shows are sent, as one lighting SysEx per frame.
+ * With a frame rate of 0, pending changes are flushed on each commit().
+ *
+ * @author f1oat
+ */
+public class LedScheduler {
+
+    public interface FrameSink {
+        /**
+         * @param since System.nanoTime() of the oldest update in the frame
+         */
+        void sendFrame(byte[] data, int length, long since);
+    }
+
+    public static final int NB_LEDS = 100;    // Indexed by LED number, 11..99 are used
+    private static final int UNKNOWN = LedStateCache.UNKNOWN;
+
+    private final FrameSink sink;
+    private final LedStateCache requested;
+    private final LedTranslator translator = new LedTranslator();
+
+    private final int[] shown = new int[NB_LEDS];
+    private final boolean[] dirty = new boolean[NB_LEDS];
+    private int nbDirty = 0;
+    private long pendingSince = 0;
+    private boolean pending = false;
+
+    private final Object flushLock = new Object();
+    private int frameRate = 60;
+    private ScheduledExecutorService timer = null;
+
+    private volatile long updateCount = 0;
+    private volatile long droppedCount = 0;
+    private volatile long flushCount = 0;
+
+    public LedScheduler(FrameSink sink) {
+        this(sink, new LedStateCache());
+    }
+
+    public LedScheduler(FrameSink sink, LedStateCache requested) {
+        this.sink = sink;
+        this.requested = requested;
+        Arrays.fill(shown, UNKNOWN);
+    }
+
+    public LedStateCache getState() {
+        return requested;
+    }
+
+    public static boolean isValidLed(int index) {
+        int row = index / 10;
+        int col = index % 10;
+        return row >= 1 && row <= 9 && col >= 1 && col <= 9;
+    }
+
+    /**
+     * @param frameRate flushes per second, 0 to flush on each commit()
+     */
+    public synchronized void setFrameRate(int frameRate) {
+        this.frameRate = Math.max(0, frameRate);
+    }
+
+    public synchronized int getFrameRate() {
+        return frameRate;
+    }
+
+    public synchronized void start() {
+        stop();
+        Arrays.fill(shown, UNKNOWN);    // The device state is unknown after (re)connection
+        if (frameRate > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+                Thread t = new Thread(r, "LED scheduler");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = 1000000000L / frameRate;
+            timer.scheduleAtFixedRate(this::flush, period, period, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Records a colour request, components in 0..127
+     */
+    public void setRgb(int index, int r, int g, int b) {
+        setSpec(index, LedTranslator.RGB, r, g, b);
+    }
+
+    /**
+     * Records a lighting request, see LedTranslator.addSpec()
+     */
+    public synchronized void setSpec(int index, int type, int a, int b, int c) {
+        if (!isValidLed(index)) {
+            return;
+        }
+        updateCount++;
+        int value = LedStateCache.pack(type, a, b, c);
+        requested.set(index, value);
+        boolean changed = (value != shown[index]);
+        if (changed != dirty[index]) {
+            dirty[index] = changed;
+            nbDirty += changed ? 1 : -1;
+        }
+        if (!changed) {
+            droppedCount++;
+        }
+    }
+
+    /**
+     * Forgets what the device shows, every known pad is sent again at next flush
+     */
+    public synchronized void invalidate() {
+        for (int i = 0; i < NB_LEDS; i++) {
+            shown[i] = UNKNOWN;
+            if (requested.get(i) != UNKNOWN && !dirty[i]) {
+                dirty[i] = true;
+                nbDirty++;
+            }
+        }
+    }
+
+    /**
+     * Sends every known pad now, as one lighting SysEx
+     */
+    public void resync() {
+        invalidate();
+        flush();
+    }
+
+    public void commit() {
+        commit(System.nanoTime());
+    }
+
+    /**
+     * To be called once a whole incoming frame has been recorded
+     * @param since System.nanoTime() when the frame was received
+     */
+    public void commit(long since) {
+        boolean immediate;
+        synchronized (this) {
+            if (nbDirty == 0) {
+                pending = false;
+            } else if (!pending) {
+                pending = true;
+                pendingSince = since;
+            }
+            immediate = (timer == null);
+        }
+        if (immediate) {
+            flush();
+        }
+    }
+
+    public void flush() {
+        synchronized (flushLock) {
+            long since;
+            synchronized (this) {
+                if (nbDirty == 0) {
+                    return;
+                }
+                translator.begin();
+                for (int i = 0; i < NB_LEDS; i++) {
+                    if (!dirty[i]) {
+                        continue;
+                    }
+                    int v = requested.get(i);
+                    translator.addSpec(v >>> 24, i, (v >> 16) & 0x7F, (v >> 8) & 0x7F, v & 0x7F);
+                    shown[i] = v;
+                    dirty[i] = false;
+                }
+                nbDirty = 0;
+                since = pending ? pendingSince : System.nanoTime();
+                pending = false;
+                translator.end();
+            }
+            flushCount++;
+            sink.sendFrame(translator.getFrame(), translator.getLength(), since);
+        }
+    }
+
+    /**
+     * @return last requested lighting of a pad, packed as type, then 3 colour bytes, or -1
+     */
+    public int getSpec(int index) {
+        return requested.get(index);
+    }
+
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+}
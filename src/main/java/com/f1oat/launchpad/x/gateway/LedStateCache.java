@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Last requested lighting of the 81 Launchpad-X LEDs, one packed int per
+ * LED: lighting type, then the 3 colour bytes of the spec. LedScheduler
+ * writes it; the GUI mirror polls the changed LEDs from the EDT, without
+ * locking, and keeps its own copy of what is displayed.
+ *
+ * @author f1oat
+ */
+public class LedStateCache {
+
+    public interface Listener {
+        void padChanged(int index, int r, int g, int b);
+    }
+
+    public static final int NB_PADS = 81;
+    public static final int UNKNOWN = -1;
+
+    private final AtomicIntegerArray state = new AtomicIntegerArray(NB_PADS);
+    private final AtomicLongArray dirty = new AtomicLongArray((NB_PADS + 63) / 64);
+    private final int[] displayed = new int[NB_PADS];
+    private volatile long activity = 0;
+    private long lastActivity = 0;
+
+    public LedStateCache() {
+        for (int i = 0; i < NB_PADS; i++) {
+            state.set(i, UNKNOWN);
+            displayed[i] = UNKNOWN;
+        }
+    }
+
+    /**
+     * @return spec packed as type, then 3 colour bytes, see LedTranslator.addSpec()
+     */
+    public static int pack(int type, int a, int b, int c) {
+        return (type << 24) | ((a & 0x7F) << 16) | ((b & 0x7F) << 8) | (c & 0x7F);
+    }
+
+    /**
+     * @return slot of a LED number 11..99, or -1
+     */
+    public static int slot(int index) {
+        return LedScheduler.isValidLed(index) ? 9 * (index / 10 - 1) + index % 10 - 1 : -1;
+    }
+
+    /**
+     * @return LED number of a slot
+     */
+    public static int led(int slot) {
+        return 10 * (slot / 9 + 1) + slot % 9 + 1;
+    }
+
+    /**
+     * @return colour shown for a packed spec, as 0xRRGGBB with 7-bit components
+     */
+    public static int rgb(int spec) {
+        switch (spec >>> 24) {
+            case LedTranslator.RGB:
+                return spec & 0x7F7F7F;
+            case LedTranslator.FLASH:
+                return LpxPalette.rgb7((spec >> 8) & 0x7F);
+            default:
+                return LpxPalette.rgb7((spec >> 16) & 0x7F);
+        }
+    }
+
+    /**
+     * Writer side
+     * @param spec see pack(), or UNKNOWN
+     */
+    public void set(int index, int spec) {
+        int slot = slot(index);
+        if (slot < 0) {
+            return;
+        }
+        state.set(slot, spec);
+        int word = slot >> 6;
+        long bit = 1L << (slot & 63);
+        long bits;
+        do {
+            bits = dirty.get(word);
+        } while ((bits & bit) == 0 && !dirty.compareAndSet(word, bits, bits | bit));
+    }
+
+    /**
+     * @return packed spec of a LED, or UNKNOWN
+     */
+    public int get(int index) {
+        int slot = slot(index);
+        return (slot < 0) ? UNKNOWN : state.get(slot);
+    }
+
+    /**
+     * Writer side, called once per incoming message
+     */
+    public void activity() {
+        activity++;
+    }
+
+    /**
+     * Reader side, reports LEDs whose colour changed since the previous poll
+     * @return number of LEDs reported
+     */
+    public int poll(Listener listener) {
+        int count = 0;
+        for (int word = 0; word < dirty.length(); word++) {
+            long bits = dirty.getAndSet(word, 0);
+            while (bits != 0) {
+                int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int v = state.get(slot);
+                if (v == displayed[slot]) {
+                    continue;
+                }
+                displayed[slot] = v;
+                int rgb = (v == UNKNOWN) ? 0 : rgb(v);
+                listener.padChanged(led(slot), rgb >> 16, (rgb >> 8) & 0x7F, rgb & 0x7F);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reader side
+     * @return true if messages were received since the previous call
+     */
+    public boolean pollActivity() {
+        long a = activity;
+        boolean active = (a != lastActivity);
+        lastActivity = a;
+        return active;
+    }
+}
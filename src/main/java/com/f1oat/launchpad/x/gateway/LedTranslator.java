@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+/**
+ * Builds Launchpad-X lighting SysEx frames into a preallocated buffer.
+ * Not thread safe: callers must serialize begin() ... end().
+ *
+ * @author f1oat
+ */
+public class LedTranslator {
+
+    public static final byte[] LPX_PROGRAMMER_MODE = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 0Ch 00h 7Fh F7h");
+    public static final byte[] LPX_NOTE_MODE = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 0Ch 00h 01h F7h");
+    public static final byte[] LPX_LIGHTING = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 0Ch 03h");
+
+    public static final int MK2_HEADER_LENGTH = 7;    // F0h 00h 20h 29h 02h 18h <cmd>
+    public static final int MAX_FRAME = 1024;
+
+    // Lighting types
+    public static final int STATIC = 0;        // <index> <colour>
+    public static final int FLASH = 1;         // <index> <colour B> <colour A>
+    public static final int PULSE = 2;         // <index> <colour>
+    public static final int RGB = 3;           // <index> <r> <g> <b>
+
+    private static final int MAX_SPEC = 5;
+
+    private final byte[] frame = new byte[MAX_FRAME];
+    private int length = 0;
+
+    public byte[] getFrame() {
+        return frame;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void begin() {
+        System.arraycopy(LPX_LIGHTING, 0, frame, 0, LPX_LIGHTING.length);
+        length = LPX_LIGHTING.length;
+    }
+
+    public boolean isEmpty() {
+        return length <= LPX_LIGHTING.length;
+    }
+
+    /**
+     * Appends an RGB lighting spec, colour components in 0..127
+     * @return false if the frame is full
+     */
+    public boolean addRgb(int index, int r, int g, int b) {
+        return addSpec(RGB, index, r, g, b);
+    }
+
+    /**
+     * Appends a lighting spec, unused colour bytes are ignored
+     * @param type STATIC, FLASH, PULSE or RGB
+     * @return false if the frame is full
+     */
+    public boolean addSpec(int type, int index, int a, int b, int c) {
+        if (length + MAX_SPEC + 1 > MAX_FRAME) {
+            return false;
+        }
+        frame[length++] = (byte) type;
+        frame[length++] = (byte) index;
+        frame[length++] = (byte) a;
+        switch (type) {
+            case FLASH:
+                frame[length++] = (byte) b;
+                break;
+            case RGB:
+                frame[length++] = (byte) b;
+                frame[length++] = (byte) c;
+                break;
+        }
+        return true;
+    }
+
+    public int end() {
+        frame[length++] = (byte) 0xF7;
+        return length;
+    }
+
+    /**
+     * Translates a MK2 "Set LEDs RGB" (0Bh) SysEx into a Launchpad-X lighting frame.
+     * MK2 colours are 6 bits, Launchpad-X ones are 7 bits.
+     * @param data complete MK2 SysEx, F0h ... F7h
+     * @param size number of valid bytes in data
+     * @return length of the frame held in getFrame()
+     */
+    public int translateRgb(byte[] data, int size) {
+        begin();
+        int end = size - 1;     // Skip F7h
+        for (int i = MK2_HEADER_LENGTH; i + 4 <= end; i += 4) {
+            if (!addRgb(data[i], 2 * data[i + 1], 2 * data[i + 2], 2 * data[i + 3])) {
+                break;
+            }
+        }
+        return end();
+    }
+}
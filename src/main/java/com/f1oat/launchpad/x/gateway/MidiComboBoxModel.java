@@ -16,11 +16,8 @@
 
 package com.f1oat.launchpad.x.gateway;
 
-import java.util.ArrayList;
 import java.util.List;
 import javax.sound.midi.MidiDevice;
-import javax.sound.midi.MidiSystem;
-import javax.sound.midi.MidiUnavailableException;
 import javax.swing.AbstractListModel;
 import javax.swing.ComboBoxModel;
 
@@ -40,22 +37,12 @@ public class MidiComboBoxModel extends AbstractListModel implements ComboBoxMode
     }
     
     public List<MidiDevice.Info> listMidiPorts(boolean output) {
-        MidiDevice.Info[] infos = MidiSystem.getMidiDeviceInfo();
-        List<MidiDevice.Info> list = new ArrayList<>();
-        
-        for (MidiDevice.Info info : infos) {
-            try {
-                MidiDevice device = MidiSystem.getMidiDevice(info);
-                boolean isOutput = (device.getMaxReceivers() == -1);
-                if (output == isOutput) list.add(info);
-            }catch (MidiUnavailableException e) {
-                // Handle or throw exception...
-            }
-        }
-
-        return list;
+        return MidiDeviceRegistry.getInstance().list(output);
     }
 
+    /**
+     * Reloads the list from the registry, call MidiDeviceRegistry.refresh() first to rescan
+     */
     public void refreshMidiPorts() {
         int oldSize = ports.size();
         this.ports = listMidiPorts(isOutput);
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+
+/**
+ * Shared index of the MIDI devices, by direction and by name.
+ * The system is only scanned on refresh(), readers get the last snapshot.
+ *
+ * @author f1oat
+ */
+public class MidiDeviceRegistry {
+
+    private static final MidiDeviceRegistry instance = new MidiDeviceRegistry();
+
+    private static class Snapshot {
+        final MidiDevice.Info[] infos;
+        final Map<MidiDevice.Info, MidiDevice> devices = new HashMap<>();
+        final List<MidiDevice.Info> inputs = new ArrayList<>();
+        final List<MidiDevice.Info> outputs = new ArrayList<>();
+        final Map<String, MidiDevice> inputsByName = new HashMap<>();
+        final Map<String, MidiDevice> outputsByName = new HashMap<>();
+
+        Snapshot(MidiDevice.Info[] infos, Snapshot previous) {
+            this.infos = infos;
+            for (MidiDevice.Info info : infos) {
+                try {
+                    MidiDevice device = (previous != null) ? previous.devices.get(info) : null;
+                    if (device == null) {
+                        device = MidiSystem.getMidiDevice(info);
+                    }
+                    devices.put(info, device);
+                    if (device.getMaxReceivers() != 0) {
+                        outputs.add(info);
+                        outputsByName.putIfAbsent(info.getName(), device);
+                    }
+                    if (device.getMaxTransmitters() != 0) {    // Loopback devices are listed on both sides
+                        inputs.add(info);
+                        inputsByName.putIfAbsent(info.getName(), device);
+                    }
+                } catch (MidiUnavailableException | IllegalArgumentException e) {
+                    Logger.getLogger(MidiDeviceRegistry.class.getName()).log(Level.WARNING, info.getName(), e);
+                }
+            }
+        }
+    }
+
+    private volatile Snapshot snapshot = null;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService watcher = null;
+
+    public static MidiDeviceRegistry getInstance() {
+        return instance;
+    }
+
+    private Snapshot get() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            refresh();
+            s = snapshot;
+        }
+        return s;
+    }
+
+    /**
+     * Scans the system for devices, listeners are called if the list changed
+     * @return true if the list changed
+     */
+    public boolean refresh() {
+        boolean changed;
+        synchronized (this) {
+            MidiDevice.Info[] infos = MidiSystem.getMidiDeviceInfo();
+            Snapshot previous = snapshot;
+            if (previous != null && Arrays.equals(previous.infos, infos)) {
+                return false;
+            }
+            snapshot = new Snapshot(infos, previous);
+            changed = (previous != null);
+        }
+        if (changed) {
+            for (Runnable l : listeners) {
+                l.run();
+            }
+        }
+        return changed;
+    }
+
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Calls refresh() periodically from a background thread
+     * @param periodMs 0 to stop
+     */
+    public synchronized void setRefreshPeriod(long periodMs) {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+        if (periodMs > 0) {
+            watcher = Executors.newSingleThreadScheduledExecutor((r) -> {
+                Thread t = new Thread(r, "MIDI device watcher");
+                t.setDaemon(true);
+                return t;
+            });
+            watcher.scheduleWithFixedDelay(this::refresh, periodMs, periodMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public List<MidiDevice.Info> list(boolean output) {
+        Snapshot s = get();
+        return Collections.unmodifiableList(output ? s.outputs : s.inputs);
+    }
+
+    public MidiDevice find(String name, boolean output) {
+        Snapshot s = get();
+        return (output ? s.outputsByName : s.inputsByName).get(name);
+    }
+
+    public MidiDevice getDevice(MidiDevice.Info info) throws MidiUnavailableException {
+        MidiDevice device = get().devices.get(info);
+        return (device != null) ? device : MidiSystem.getMidiDevice(info);
+    }
+}
@@ -15,12 +15,11 @@
  */
 package com.f1oat.launchpad.x.gateway;
 
-import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.io.File;
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sound.midi.*;
-import javax.swing.SwingUtilities;
 
 /**
  *
@@ -28,34 +27,181 @@ import javax.swing.SwingUtilities;
  */
 public class MidiHandler {
 
+    private static final long EVENTS_TIMEOUT_MS = 1000;
+
     private MidiDevice lpx_in, lpx_out, fl_in, fl_out, fl_out_native;
+    private MidiOutputQueue lpx_queue = null, fl_queue = null, fl_native_queue = null;
+    private int queueSize = 256;
+    private MidiOutputQueue.eOverflow lpx_overflow = MidiOutputQueue.eOverflow.DropOldest;
+    private MidiOutputQueue.eOverflow fl_overflow = MidiOutputQueue.eOverflow.Block;
+    private MidiOutputQueue.eOverflow fl_native_overflow = MidiOutputQueue.eOverflow.Block;
+    private volatile PadMap padMap = new PadMap();
+    private volatile VelocityCurve velocityCurve = VelocityCurve.LINEAR;
+    private volatile VelocityCurve pressureCurve = VelocityCurve.LINEAR;
+    private final PressureThinner thinner = new PressureThinner();
+    private final TraceLog trace = new TraceLog();
+    private final LedStateCache ledState = new LedStateCache();
+    private final LedScheduler scheduler = new LedScheduler(this::sendLedFrame, ledState);
+    private final Mk2SysexDecoder decoder = new Mk2SysexDecoder();
+    private final PaletteMatcher paletteMatcher = new PaletteMatcher();
+    private final TrafficRecorder recorder = new TrafficRecorder();
+    private EventBus.Consumer traceConsumer = null;
+    private EventBus.Consumer recordConsumer = null;
+    private EventBus.Consumer metricsConsumer = null;
+    private File recordFile = null;
+    private final GatewayMetrics metrics = new GatewayMetrics();
+    private final EventRuntime.Lane events = EventRuntime.getInstance().newLane("MidiHandler");
+    private final EventBus flEvents = new EventBus(256, LedTranslator.MAX_FRAME);
+    private final EventBus lpxEvents = new EventBus(1024, 0);
     private int sysex_count = 0;
     private iNotifier myGUI = null;
 
     public enum eMode {
         Native, Prog
     };
-    private eMode mode = eMode.Prog;
-    private boolean running = false;
+    private volatile eMode mode = eMode.Prog;
+    private Transmitter fl_transmitter = null, lpx_transmitter = null;
+    private volatile boolean running = false;      // Lifecycle methods are synchronized, the MIDI callbacks only read it
+
+    private class MetricsConsumer implements EventBus.Handler {
+
+        @Override
+        public void onShort(int status, int data1, int data2, long nanos) {
+            metrics.padMessage();
+        }
 
+        @Override
+        public void onMessage(byte[] data, int length, long nanos) {
+            metrics.ledMessage(length);
+        }
+    }
+
+    /**
+     * @param gui status and error sink, may be null when running headless
+     */
     public void setGUI(iNotifier gui) {
         myGUI = gui;
     }
 
-    private MidiDevice findMidiPort(String name, boolean output) {
-        MidiDevice.Info[] infos = MidiSystem.getMidiDeviceInfo();
-        for (MidiDevice.Info info : infos) {
-            try {
-                MidiDevice device = MidiSystem.getMidiDevice(info);
-                boolean isOutput = (device.getMaxReceivers() == -1);
-                if (device.getDeviceInfo().getName().equals(name) && isOutput == output) {
-                    return device;
-                }
-            } catch (MidiUnavailableException e) {
-                // Handle or throw exception...
-            }
+    private void notifyError() {
+        iNotifier gui = myGUI;
+        if (gui != null) {
+            events.execute(gui::notifyError);     // May be called from a MIDI or watcher thread
+        }
+    }
+
+    private void notifyRunning() {
+        iNotifier gui = myGUI;
+        if (gui != null) {
+            boolean state = running;
+            events.execute(() -> gui.notifyRunning(state));
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public GatewayMetrics getMetrics() {
+        return metrics;
+    }
+
+    public LedStateCache getLedState() {
+        return ledState;
+    }
+
+    /**
+     * Sends the whole cached LED state to the Launchpad-X, as one lighting SysEx
+     */
+    public void resync() {
+        if (running && mode == eMode.Prog) {
+            scheduler.resync();
         }
-        return null;
+    }
+
+    /**
+     * @param map compiled routing of the Launchpad-X messages, not modified afterwards
+     */
+    public void setPadMap(PadMap map) {
+        padMap = map;
+    }
+
+    /**
+     * Applies to notes, after the pad mapping; can be changed while running
+     */
+    public void setVelocityCurve(VelocityCurve curve) {
+        velocityCurve = curve;
+    }
+
+    public VelocityCurve getVelocityCurve() {
+        return velocityCurve;
+    }
+
+    /**
+     * Applies to polyphonic aftertouch, after the pad mapping; can be changed while running
+     */
+    public void setPressureCurve(VelocityCurve curve) {
+        pressureCurve = curve;
+    }
+
+    public VelocityCurve getPressureCurve() {
+        return pressureCurve;
+    }
+
+    public PressureThinner getPressureThinner() {
+        return thinner;
+    }
+
+    /**
+     * @return fl_in, fl_out, fl_out_native, lpx_in and lpx_out, null if not set
+     */
+    public synchronized MidiDevice[] getDevices() {
+        return new MidiDevice[]{fl_in, fl_out, fl_out_native, lpx_in, lpx_out};
+    }
+
+    public PaletteMatcher getPaletteMatcher() {
+        return paletteMatcher;
+    }
+
+    /**
+     * Output queues settings, applied at next start()
+     */
+    public void setQueues(int size, MidiOutputQueue.eOverflow lpx, MidiOutputQueue.eOverflow fl, MidiOutputQueue.eOverflow flNative) {
+        queueSize = size;
+        lpx_overflow = lpx;
+        fl_overflow = fl;
+        fl_native_overflow = flNative;
+    }
+
+    public synchronized void setTrace(boolean enabled) {
+        trace.setEnabled(enabled);
+        if (enabled && traceConsumer == null) {
+            traceConsumer = lpxEvents.subscribe("LPX trace", trace);
+        } else if (!enabled && traceConsumer != null) {
+            lpxEvents.unsubscribe(traceConsumer);
+            traceConsumer = null;
+        }
+    }
+
+    /**
+     * @param path log of the received traffic, written from next start(), null or empty for none
+     */
+    public void setRecordFile(String path) {
+        recordFile = (path == null || path.isEmpty()) ? null : new File(path);
+    }
+
+    /**
+     * @param fps LED frames per second sent to the Launchpad-X, 0 to send each update as it comes
+     */
+    public synchronized void setLedFrameRate(int fps) {
+        scheduler.setFrameRate(fps);
+        if (running) {
+            scheduler.start();
+        }
+    }
+
+    private MidiDevice findMidiPort(String name, boolean output) {
+        return MidiDeviceRegistry.getInstance().find(name, output);
     }
 
     private MidiDevice getMidiOut(String name) {
@@ -66,67 +212,211 @@ public class MidiHandler {
         return findMidiPort(name, false);
     }
 
-    public void stop() {
+    public synchronized void stop() {
         if (!running) {
             return;
         }
+        scheduler.stop();
+        thinner.stop();
         if (mode == eMode.Prog) setNoteMode();
         running = false;
 
+        closeInputs();
         if (fl_in != null) {
             fl_in.close();
         }
-        if (fl_out != null) {
-            fl_out.close();
-        }
-        if (fl_out_native != null) {
-            fl_out_native.close();
-        }
         if (lpx_in != null) {
             lpx_in.close();
         }
-        if (lpx_out != null) {
-            lpx_out.close();
+        if (!(flEvents.sync(EVENTS_TIMEOUT_MS) & lpxEvents.sync(EVENTS_TIMEOUT_MS))) {
+            Logger.getLogger(MidiHandler.class.getName()).log(Level.WARNING, "Event consumers still busy");
         }
+        long lost = flEvents.getLostCount() + lpxEvents.getLostCount();
+        if (lost > 0) {
+            Logger.getLogger(MidiHandler.class.getName()).log(Level.WARNING, "{0} events skipped by slow consumers", lost);
+        }
+        Logger.getLogger(MidiHandler.class.getName()).log(Level.INFO, metrics.toString());
+        Logger.getLogger(MidiHandler.class.getName()).log(Level.INFO, thinner.toString());
+        closeOutputs();
+        closeMetrics();
+        closeRecorder();
+        notifyRunning();
     }
 
-    public void start() {
-        try {
-            fl_in.getTransmitter().setReceiver(
-                new FL_Receiver()
-            );
+    private class QueueListener implements MidiOutputQueue.Listener {
+        private final boolean leds;
 
+        QueueListener(boolean leds) {
+            this.leds = leds;
+        }
+
+        @Override
+        public void sent(long since, int length) {
+            if (leds) {
+                metrics.ledSent(since, length);
+            } else {
+                metrics.padSent(since);
+            }
+        }
+
+        @Override
+        public void failed() {
+            metrics.error();
+        }
+
+        @Override
+        public void dropped() {
+            metrics.dropped();
+            if (leds) {
+                events.execute(scheduler::invalidate);  // The dropped frame may hold the last update of some pads
+            }
+        }
+    }
+
+    private MidiOutputQueue openOutput(MidiDevice device, int maxSysex, MidiOutputQueue.eOverflow overflow, boolean leds) throws MidiUnavailableException {
+        MidiOutputSession session = new MidiOutputSession(device);
+        session.open();
+        MidiOutputQueue queue = new MidiOutputQueue(session, queueSize, maxSysex, overflow, new QueueListener(leds));
+        queue.start(leds);
+        return queue;
+    }
+
+    private void closeInputs() {
+        for (Transmitter t : new Transmitter[]{fl_transmitter, lpx_transmitter}) {
+            if (t != null) {
+                t.close();
+            }
+        }
+        fl_transmitter = lpx_transmitter = null;
+    }
+
+    private void closeOutputs() {
+        for (MidiOutputQueue queue : new MidiOutputQueue[]{lpx_queue, fl_queue, fl_native_queue}) {
+            if (queue != null) {
+                queue.stop();
+                Logger.getLogger(MidiHandler.class.getName()).log(Level.INFO, queue.getSession().toString());
+                queue.getSession().close();
+            }
+        }
+        lpx_queue = fl_queue = fl_native_queue = null;
+    }
+
+    public synchronized void start() {
+        try {
+            closeInputs();      // left over from a failed start()
+            closeOutputs();
+            openMetrics();
+            openRecorder();
+
+            lpx_queue = openOutput(lpx_out, LedTranslator.MAX_FRAME, lpx_overflow, true);
+            fl_queue = openOutput(fl_out, 0, fl_overflow, false);
+            fl_native_queue = openOutput(fl_out_native, LedTranslator.MAX_FRAME, fl_native_overflow, false);
+
+            // Wired once, mode changes do not touch the transmitters
+            fl_transmitter = fl_in.getTransmitter();
+            fl_transmitter.setReceiver(new FL_Receiver());
+            lpx_transmitter = lpx_in.getTransmitter();
+            lpx_transmitter.setReceiver(new LPX_Router(fl_native_queue.asReceiver()));
             lpx_in.open();
             fl_in.open();
-            fl_out.open();
-            fl_out_native.open();
             running = true;
 
             setMode();
+            scheduler.start();
+            // Pressure held back by the rate limit, sent once its interval has elapsed
+            thinner.start((channel, pad, value) -> pressPad(ShortMessage.POLY_PRESSURE | channel, pad, value, System.nanoTime()));
+            resync();   // The device may have been reset or replaced
+            notifyRunning();
         } catch (MidiUnavailableException ex) {
             Logger.getLogger(MidiHandler.class.getName()).log(Level.SEVERE, null, ex);
-            myGUI.notifyError();
+            abortStart();
         } catch (NullPointerException ex) {
-            myGUI.notifyError();
+            abortStart();
+        }
+    }
+
+    private void abortStart() {
+        closeInputs();
+        closeOutputs();
+        closeMetrics();
+        closeRecorder();
+        notifyError();
+    }
+
+    /**
+     * Side work on the received traffic runs on bus consumer threads, which only
+     * exist while running. Trace and recording are only subscribed while enabled.
+     */
+    private void openMetrics() {
+        closeMetrics();     // left over from a failed start()
+        EventBus.Handler counter = new MetricsConsumer();
+        metricsConsumer = EventBus.subscribe("Metrics", new EventBus[]{flEvents, lpxEvents}, new EventBus.Handler[]{counter, counter});
+    }
+
+    private void closeMetrics() {
+        if (metricsConsumer != null) {
+            metricsConsumer.close();
+            metricsConsumer = null;
         }
     }
 
-    public void set(MidiDevice.Info _fl_in, MidiDevice.Info _fl_out, MidiDevice.Info _fl_out_native, MidiDevice.Info _lpx_in, MidiDevice.Info _lpx_out) {
+    private void openRecorder() {
+        closeRecorder();    // left over from a failed start()
+        if (recordFile == null) {
+            return;
+        }
+        try {
+            recorder.open(recordFile);
+            recordConsumer = recorder.attach(flEvents, lpxEvents);
+        } catch (IOException ex) {
+            // Not fatal, the gateway runs without recording
+            Logger.getLogger(MidiHandler.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Detaches the recorder from the buses, which should be synced first
+     */
+    private void closeRecorder() {
+        if (recordConsumer != null) {
+            recordConsumer.close();
+            recordConsumer = null;
+        }
+        recorder.close();
+    }
+
+    public synchronized void set(MidiDevice.Info _fl_in, MidiDevice.Info _fl_out, MidiDevice.Info _fl_out_native, MidiDevice.Info _lpx_in, MidiDevice.Info _lpx_out) {
         try {
             stop();
+            MidiDeviceRegistry registry = MidiDeviceRegistry.getInstance();
 
-            if (_lpx_out != null) lpx_out = MidiSystem.getMidiDevice(_lpx_out);
-            if (_lpx_in != null) lpx_in = MidiSystem.getMidiDevice(_lpx_in);
+            if (_lpx_out != null) lpx_out = registry.getDevice(_lpx_out);
+            if (_lpx_in != null) lpx_in = registry.getDevice(_lpx_in);
 
-            if (_fl_in != null) fl_in = MidiSystem.getMidiDevice(_fl_in);
-            if (_fl_out != null) fl_out = MidiSystem.getMidiDevice(_fl_out);
-            if (_fl_out_native != null) fl_out_native = MidiSystem.getMidiDevice(_fl_out_native);
+            if (_fl_in != null) fl_in = registry.getDevice(_fl_in);
+            if (_fl_out != null) fl_out = registry.getDevice(_fl_out);
+            if (_fl_out_native != null) fl_out_native = registry.getDevice(_fl_out_native);
         } catch (MidiUnavailableException ex) {
             Logger.getLogger(MidiHandler.class.getName()).log(Level.SEVERE, null, ex);
-            myGUI.notifyError();
+            notifyError();
         }
     }
 
+    public synchronized void set(MidiDevice _fl_in, MidiDevice _fl_out, MidiDevice _fl_out_native, MidiDevice _lpx_in, MidiDevice _lpx_out) {
+        stop();
+
+        if (_lpx_out != null) lpx_out = _lpx_out;
+        if (_lpx_in != null) lpx_in = _lpx_in;
+
+        if (_fl_in != null) fl_in = _fl_in;
+        if (_fl_out != null) fl_out = _fl_out;
+        if (_fl_out_native != null) fl_out_native = _fl_out_native;
+    }
+
+    public synchronized void setByName(String _fl_in, String _fl_out, String _fl_out_native, String _lpx_in, String _lpx_out) {
+        set(getMidiIn(_fl_in), getMidiOut(_fl_out), getMidiOut(_fl_out_native), getMidiIn(_lpx_in), getMidiOut(_lpx_out));
+    }
+
     public static byte[] hex2byte(String s) {
         String[] values = s.split(" ");
         int nbBytes = values.length;
@@ -138,163 +428,183 @@ public class MidiHandler {
         return data;
     }
 
-    private void pressPad(int cmd, int pad, int channel, int velo) {
-        //System.out.printf("pressPad %d %d %s\n", pad, channel, velo);
-        try {
-            if (pad < 0x5B) {
-                fl_out.getReceiver().send(new ShortMessage(cmd, channel, pad, velo), -1);
-            } else {
-                fl_out.getReceiver().send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, pad - 0x5B + 0x68, velo), -1);
-            }
-        } catch (MidiUnavailableException | InvalidMidiDataException ex) {
-            Logger.getLogger(MidiHandler.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * Queues the remapped message for FL-Studio
+     * @param since System.nanoTime() when the pad event was received
+     */
+    private void pressPad(int status, int pad, int velo, long since) {
+        PadMap map = padMap;
+        int route = map.route(status, pad);
+        MidiOutputQueue queue = fl_queue;
+        if (route == PadMap.UNMAPPED || queue == null) {
+            return;
+        }
+        int value = map.value(status, pad, velo);
+        switch (status & 0xF0) {
+            case ShortMessage.NOTE_ON:
+                value = velocityCurve.apply(value);
+                break;
+            case ShortMessage.POLY_PRESSURE:
+                value = pressureCurve.apply(value);
+                break;
         }
+        queue.offerShort(PadMap.status(route), PadMap.number(route), value, since);
     }
 
     public void pressPad(int pad, int velo) {
-        pressPad(ShortMessage.NOTE_ON, pad, 0, velo);
+        if (pad >= 0 && pad < 128) {
+            pressPad(ShortMessage.NOTE_ON, pad, velo & 0x7F, System.nanoTime());
+        }
     }
 
     private class LPX_Receiver implements Receiver {
 
         @Override
         public void send(MidiMessage msg, long timeStamp) {
-            byte[] data = msg.getMessage();
+            long t0 = System.nanoTime();
             // If msg is a FastShortMessage, it will only have 2 bytes of data.
-            if (data.length < 3) {
+            if (!(msg instanceof ShortMessage) || msg.getLength() < 3) {
                 return;
             }
-            System.out.printf("%02X %02X %02X\n", data[0], data[1], data[2]);
-
-            int command = data[0] & 0xF0;
-            int channel = data[0] & 0x0F;
-            int pad = data[1];
-            int velo = data[2];
-
-            switch (command) {
-                case ShortMessage.NOTE_ON:
-                case ShortMessage.POLY_PRESSURE:
-                    pressPad(command, pad, channel, velo);
-                    break;
-                case ShortMessage.CONTROL_CHANGE:
-                    pressPad(ShortMessage.NOTE_ON, pad, channel, velo);
-                    break;
+            ShortMessage in = (ShortMessage) msg;
+            int status = in.getStatus();
+            int pad = in.getData1();
+            int velo = in.getData2();
+            lpxEvents.publishShort(status, pad, velo, t0);    // Metrics, trace and recording
+
+            int command = status & 0xF0;
+            int channel = status & 0x0F;
+            if (!thinner.accept(command, channel, pad, velo)) {
+                metrics.dropped();
+                return;
             }
-         }
+            pressPad(status, pad, velo, t0);
+        }
 
         public void close() {
         }
     }
 
-    private void guiUpdate() {
-        if (myGUI == null) {
-            return;
-        }
-
-        SwingUtilities.invokeLater(new Runnable() {
-            public void run() {
-                myGUI.udpateStatus();
-            }
-        });
+    public MidiOutputSession getLpxOutputSession() {
+        MidiOutputQueue queue = lpx_queue;
+        return (queue != null) ? queue.getSession() : null;
     }
 
-    private void trig_Activity() {
-        guiUpdate();
+    /**
+     * Queues a SysEx for the Launchpad-X, sent by the port writer thread
+     * @param since System.nanoTime() of the oldest update in the frame
+     */
+    private boolean sendSysexLPX(byte[] data, int length, long since) {
+        MidiOutputQueue queue = lpx_queue;
+        return (queue != null) && queue.offerSysex(data, length, since);
     }
 
-    private void sendSysexLPX(String header, ByteBuffer payload) {
-        if (lpx_out == null) {
-            return;
-        }
-
-        try {
-            ByteBuffer outBuffer = ByteBuffer.allocate(1024);
-            outBuffer.put(hex2byte(header));
-            if (payload != null) {
-                outBuffer.put(payload);
-            }
-
-            SysexMessage outMsg = new SysexMessage(outBuffer.array(), outBuffer.position());
+    private void sendLedFrame(byte[] data, int length, long since) {
+        sendSysexLPX(data, length, since);
+    }
 
-            lpx_out.open();
-            lpx_out.getReceiver().send(outMsg, -1);
-            lpx_out.close();
-        } catch (MidiUnavailableException | InvalidMidiDataException ex) {
-            Logger.getLogger(MidiHandler.class.getName()).log(Level.SEVERE, null, ex);
-        }
+    /**
+     * Queues a layout change, never dropped to make room for LED frames
+     */
+    private boolean sendControlLPX(byte[] data) {
+        MidiOutputQueue queue = lpx_queue;
+        return (queue != null) && queue.offerControl(data, data.length, System.nanoTime());
     }
 
     private void setProgramMode() {
-        sendSysexLPX("F0h 00h 20h 29h 02h 0Ch 00h 7Fh F7h", null);
+        sendControlLPX(LedTranslator.LPX_PROGRAMMER_MODE);
     }
 
     private void setNoteMode() {
-        sendSysexLPX("F0h 00h 20h 29h 02h 0Ch 00h 01h F7h", null);
+        sendControlLPX(LedTranslator.LPX_NOTE_MODE);
     }
 
-    public void setMode(eMode mode) {
+    public synchronized void setMode(eMode mode) {
         this.mode = mode;
         if (running) {
             setMode();
+            resync();
         }
     }
 
+    /**
+     * Puts the Launchpad-X in the layout of the current mode, LPX_Router follows the mode by itself
+     */
     private void setMode() {
-        try {
-            switch (mode) {
-                case Prog: {
-                    setProgramMode();
-                    lpx_in.getTransmitter().setReceiver(new LPX_Receiver());
-                    break;
-                }
-                case Native: {
-                    setNoteMode();
-                    lpx_in.getTransmitter().setReceiver(fl_out_native.getReceiver());
-                    break;
-                }
-            }
-        } catch (MidiUnavailableException ex) {
-            Logger.getLogger(MidiHandler.class.getName()).log(Level.SEVERE, null, ex);
+        switch (mode) {
+            case Prog:
+                setProgramMode();
+                break;
+            case Native:
+                setNoteMode();
+                break;
         }
     }
 
-    private class FL_Receiver implements Receiver {
+    /**
+     * Single receiver of lpx_in: sends each message to the translation or to
+     * the native pass-through, as selected by mode when it arrives.
+     */
+    private class LPX_Router implements Receiver {
+        private final Receiver prog = new LPX_Receiver();
+        private final Receiver pass;
+
+        LPX_Router(Receiver pass) {
+            this.pass = pass;
+        }
 
         @Override
         public void send(MidiMessage msg, long timeStamp) {
-            trig_Activity();
+            (mode == eMode.Prog ? prog : pass).send(msg, timeStamp);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private class FL_Receiver implements Receiver, Mk2SysexDecoder.LedSink {
+
+        @Override
+        public void send(MidiMessage msg, long timeStamp) {
+            long t0 = System.nanoTime();
+            ledState.activity();
+            // A fresh clone per message, unavoidable: Java Sound exposes no read-only view of the bytes
             byte[] data = msg.getMessage();
-            byte sysex = data[6];
-            switch (sysex) {
-                case 0x22: {
-                    //setProgramMode(); //Set layout Session / RX: F0h 00h 20h 29h 02h 18h 22h 00h F7h
-                    break;
-                }
-
-                case 0x0E:  //Set all LEDs
-                    break;
-
-                case 0x0B: {
-                    byte[] leds = Arrays.copyOfRange(data, 7, data.length - 1); //Set LEDs RGB mode
-                    int nbLeds = leds.length / 4;
-                    ByteBuffer payload = ByteBuffer.allocate(1024);
-                    for (int i = 0; i < nbLeds; i++) {
-                        byte index = leds[4 * i];
-                        byte r = (byte) (2 * leds[4 * i + 1]);
-                        byte g = (byte) (2 * leds[4 * i + 2]);
-                        byte b = (byte) (2 * leds[4 * i + 3]);
-
-                        byte[] cmd = {3, index, r, g, b};
-                        payload.put(cmd);
-                        myGUI.setPadColor(index, r, g, b);
-                    }
-                    payload.put((byte) 0xF7);
-                    payload.flip();
-                    sendSysexLPX("F0h 00h 20h 29h 02h 0Ch 03h", payload);   // LED lighting
-                    break;
-                }
+            flEvents.publish(data, data.length, t0);        // Metrics and recording
+            if (decoder.decode(data, data.length, this)) {
+                scheduler.commit(t0);   // LED lighting, now or at next frame
+            }
+        }
 
+        @Override
+        public void setRgb(int index, int r, int g, int b) {
+            int colour = paletteMatcher.match(r, g, b);
+            if (colour >= 0) {
+                setPalette(index, LedTranslator.STATIC, colour);
+                return;
             }
+            r *= 2;     // MK2 colours are 6 bits, Launchpad-X ones are 7 bits
+            g *= 2;
+            b *= 2;
+            scheduler.setRgb(index, r, g, b);
+        }
+
+        @Override
+        public void setPalette(int index, int type, int colour) {
+            if (type == LedTranslator.FLASH) {
+                // Flash between the current static colour, if any, and the new one
+                int current = scheduler.getSpec(index);
+                int colourB = (current >>> 24 == LedTranslator.STATIC) ? (current >> 16) & 0x7F : 0;
+                scheduler.setSpec(index, type, colourB, colour, 0);
+            } else {
+                scheduler.setSpec(index, type, colour, 0, 0);
+            }
+        }
+
+        @Override
+        public void setLayout(int layout) {
+            // The Launchpad-X stays in programmer mode, FL-Studio layout changes are not forwarded
         }
 
         @Override
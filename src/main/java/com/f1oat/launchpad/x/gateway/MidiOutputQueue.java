@@ -0,0 +1,358 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * Bounded lock-free queue in front of an output port, drained by a thread
+ * of MidiWriterPool, so that callers never wait on the device.
+ * Messages are copied into preallocated slots, SysEx bodies into an
+ * off-heap SysexArena; the writer copies them once more, straight into the
+ * outgoing message. The queue does not allocate once running.
+ * Based on D. Vyukov's bounded MPMC queue.
+ *
+ * @author f1oat
+ */
+public class MidiOutputQueue {
+
+    public enum eOverflow {
+        DropOldest, Block
+    };
+
+    public interface Listener {
+        /**
+         * Called from a writer thread after each successful send
+         * @param since time stamp given when the message was queued
+         */
+        void sent(long since, int length);
+
+        void failed();
+
+        /**
+         * Called from the producer thread when a message was discarded
+         */
+        void dropped();
+    }
+
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long DRAIN_TIMEOUT_MS = 500;
+    private static final int KEPT = -2;
+
+    private final MidiOutputSession session;
+    private final eOverflow overflow;
+    private final Listener listener;
+    private final int mask;
+    private final AtomicLongArray sequence;
+    private final int[] shortMsg;      // Packed status/data1/data2, -1 for SysEx
+    private final SysexArena sysex;     // One region per slot
+    private final int[] length;
+    private final long[] since;
+    private final boolean[] control;   // Never dropped to make room
+    private final AtomicLong enqueuePos = new AtomicLong();
+    private final AtomicLong dequeuePos = new AtomicLong();
+
+    private MidiWriterPool pool = null;
+    private volatile MidiWriterPool.Writer writer = null;
+    private volatile boolean running = false;
+    private boolean leds = false;
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    // Writer side
+    private final Object sendLock = new Object();
+    private final long[] meta = new long[2];
+    private final ShortMessage shortOut = new ShortMessage();
+    private final ArenaSysexMessage sysexOut;
+
+    /**
+     * @param capacity rounded up to a power of 2
+     * @param maxSysex largest SysEx accepted, 0 for short messages only
+     */
+    public MidiOutputQueue(MidiOutputSession session, int capacity, int maxSysex, eOverflow overflow, Listener listener) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.session = session;
+        this.overflow = overflow;
+        this.listener = listener;
+        mask = size - 1;
+        sequence = new AtomicLongArray(size);
+        shortMsg = new int[size];
+        sysex = new SysexArena(size, maxSysex);
+        length = new int[size];
+        since = new long[size];
+        control = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            sequence.set(i, i);
+        }
+        sysexOut = new ArenaSysexMessage(sysex.getRegionSize());
+    }
+
+    /**
+     * SysexMessage filled straight from the arena, without the intermediate
+     * array and the extra copy of setMessage()
+     */
+    private static class ArenaSysexMessage extends SysexMessage {
+
+        ArenaSysexMessage(int capacity) {
+            super(new byte[]{(byte) SysexMessage.SYSTEM_EXCLUSIVE, (byte) ShortMessage.END_OF_EXCLUSIVE});
+            data = new byte[Math.max(2, capacity)];
+        }
+
+        void load(SysexArena arena, int region, int size) {
+            arena.get(region, data, size);
+            length = size;
+        }
+    }
+
+    public MidiOutputSession getSession() {
+        return session;
+    }
+
+    boolean isLeds() {
+        return leds;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public void start() {
+        start(false);
+    }
+
+    /**
+     * @param leds true for a Launchpad-X LED output, kept apart from the FL-Studio outputs by the pool
+     */
+    public void start(boolean leds) {
+        start(MidiWriterPool.getInstance(), leds);
+    }
+
+    public void start(MidiWriterPool pool) {
+        start(pool, false);
+    }
+
+    public synchronized void start(MidiWriterPool pool, boolean leds) {
+        if (writer != null) {
+            return;
+        }
+        this.pool = pool;
+        this.leds = leds;
+        running = true;
+        writer = pool.attach(this);
+    }
+
+    /**
+     * Stops sending once the queued messages are sent, or after a timeout
+     */
+    public synchronized void stop() {
+        if (writer == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        while (!isEmpty() && System.currentTimeMillis() < deadline) {
+            writer.wake();
+            Thread.yield();
+        }
+        running = false;
+        pool.detach(this, writer);
+        synchronized (sendLock) {
+            writer = null;      // No send in progress past this point
+        }
+    }
+
+    public boolean isEmpty() {
+        return dequeuePos.get() >= enqueuePos.get();
+    }
+
+    public boolean offerShort(int status, int data1, int data2, long timeStamp) {
+        return offer(null, (status << 16) | (data1 << 8) | data2, timeStamp, false);
+    }
+
+    public boolean offerSysex(byte[] data, int size, long timeStamp) {
+        return isValidSysex(data, size) && offer(data, size, timeStamp, false);
+    }
+
+    /**
+     * Queues a SysEx that must not be lost, such as a layout change: with
+     * DropOldest, it is never dropped to make room, a later offer waits for
+     * it to be sent instead
+     */
+    public boolean offerControl(byte[] data, int size, long timeStamp) {
+        return isValidSysex(data, size) && offer(data, size, timeStamp, true);
+    }
+
+    private boolean isValidSysex(byte[] data, int size) {
+        if (size > sysex.getRegionSize()) {
+            Logger.getLogger(MidiOutputQueue.class.getName()).log(Level.WARNING, "SysEx too large: {0} bytes", size);
+            listener.failed();
+            return false;
+        }
+        int status = (size > 0) ? data[0] & 0xFF : 0;
+        if (status != SysexMessage.SYSTEM_EXCLUSIVE && status != SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE) {
+            // Checked here, the writer does not go through setMessage()
+            Logger.getLogger(MidiOutputQueue.class.getName()).log(Level.WARNING, "Not a SysEx: {0} bytes", size);
+            listener.failed();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param data SysEx bytes, or null for a short message
+     * @param value SysEx length, or packed short message
+     */
+    private boolean offer(byte[] data, int value, long timeStamp, boolean isControl) {
+        while (true) {
+            long pos = enqueuePos.get();
+            int idx = (int) (pos & mask);
+            long dif = sequence.get(idx) - pos;
+            if (dif == 0) {
+                if (enqueuePos.compareAndSet(pos, pos + 1)) {
+                    if (data != null) {
+                        sysex.put(idx, data, value);
+                        length[idx] = value;
+                        shortMsg[idx] = -1;
+                    } else {
+                        length[idx] = 3;
+                        shortMsg[idx] = value;
+                    }
+                    since[idx] = timeStamp;
+                    control[idx] = isControl;
+                    sequence.set(idx, pos + 1);
+                    MidiWriterPool.Writer w = writer;
+                    if (w != null) {
+                        w.wake();
+                    }
+                    return true;
+                }
+            } else if (dif < 0) {
+                // Full
+                int dropped = (overflow == eOverflow.DropOldest) ? poll(null, true) : KEPT;
+                if (dropped >= 0) {
+                    droppedCount.incrementAndGet();
+                    listener.dropped();
+                } else if (dropped == KEPT) {
+                    // Wait for the writer to make room
+                    if (!running) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(PARK_NANOS / 100);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest message out of the queue
+     * @param meta receives the packed short message and time stamp, SysEx bytes
+     * go to sysexOut; null to discard
+     * @param keepControl leaves a control message in place
+     * @return message length, -1 if the queue is empty, KEPT if a control message was left
+     */
+    private int poll(long[] meta, boolean keepControl) {
+        while (true) {
+            long pos = dequeuePos.get();
+            int idx = (int) (pos & mask);
+            long dif = sequence.get(idx) - (pos + 1);
+            if (dif == 0) {
+                if (keepControl && control[idx]) {
+                    return KEPT;
+                }
+                if (dequeuePos.compareAndSet(pos, pos + 1)) {
+                    int size = length[idx];
+                    if (meta != null) {
+                        meta[0] = shortMsg[idx];
+                        meta[1] = since[idx];
+                        if (shortMsg[idx] < 0) {
+                            sysexOut.load(sysex, idx, size);
+                        }
+                    }
+                    sequence.set(idx, pos + mask + 1);
+                    return size;
+                }
+            } else if (dif < 0) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Receiver view of the queue, for pass-through connections
+     */
+    public Receiver asReceiver() {
+        return new Receiver() {
+            @Override
+            public void send(MidiMessage message, long timeStamp) {
+                long now = System.nanoTime();
+                if (message instanceof ShortMessage && message.getLength() <= 3) {
+                    ShortMessage msg = (ShortMessage) message;
+                    offerShort(msg.getStatus(), msg.getData1(), msg.getData2(), now);
+                } else {
+                    byte[] data = message.getMessage();     // Heap clone made by Java Sound, see FL_Receiver
+                    offerSysex(data, data.length, now);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Called by the writer thread
+     * @return false if nothing was sent
+     */
+    boolean sendNext() {
+        synchronized (sendLock) {
+            if (!running) {
+                return false;
+            }
+            int size = poll(meta, false);
+            if (size < 0) {
+                return false;
+            }
+            try {
+                MidiMessage out;
+                int packed = (int) meta[0];
+                if (packed >= 0) {
+                    shortOut.setMessage(packed >> 16, (packed >> 8) & 0xFF, packed & 0xFF);
+                    out = shortOut;
+                } else {
+                    out = sysexOut;
+                }
+                if (session.send(out)) {
+                    listener.sent(meta[1], size);
+                } else {
+                    listener.failed();
+                }
+            } catch (InvalidMidiDataException ex) {
+                Logger.getLogger(MidiOutputQueue.class.getName()).log(Level.SEVERE, null, ex);
+                listener.failed();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+
+/**
+ * Output port kept open between start() and stop(), with a cached Receiver.
+ * If a send fails because the device went away, the port is reopened once
+ * and the message is sent again.
+ *
+ * @author f1oat
+ */
+public class MidiOutputSession {
+
+    private final MidiDevice device;
+    private Receiver receiver = null;
+
+    private long sendCount = 0;
+    private long reopenCount = 0;
+    private long lastLatency = 0;
+    private long maxLatency = 0;
+    private long totalLatency = 0;
+
+    public MidiOutputSession(MidiDevice device) {
+        this.device = device;
+    }
+
+    public MidiDevice getDevice() {
+        return device;
+    }
+
+    public synchronized boolean isOpen() {
+        return receiver != null;
+    }
+
+    public synchronized void open() throws MidiUnavailableException {
+        if (receiver != null) {
+            return;
+        }
+        device.open();
+        receiver = device.getReceiver();
+    }
+
+    public synchronized void close() {
+        if (receiver != null) {
+            receiver.close();
+            receiver = null;
+        }
+        device.close();
+    }
+
+    private void reopen() throws MidiUnavailableException {
+        close();
+        reopenCount++;
+        open();
+    }
+
+    public synchronized boolean send(MidiMessage msg) {
+        try {
+            if (receiver == null) {
+                open();
+            }
+            long t0 = System.nanoTime();
+            try {
+                receiver.send(msg, -1);
+            } catch (IllegalStateException ex) {
+                // Receiver closed under our feet, typically a device drop
+                reopen();
+                t0 = System.nanoTime();
+                receiver.send(msg, -1);
+            }
+            lastLatency = System.nanoTime() - t0;
+            totalLatency += lastLatency;
+            if (lastLatency > maxLatency) {
+                maxLatency = lastLatency;
+            }
+            sendCount++;
+            return true;
+        } catch (MidiUnavailableException | IllegalStateException ex) {
+            Logger.getLogger(MidiOutputSession.class.getName()).log(Level.SEVERE, null, ex);
+            close();
+            return false;
+        }
+    }
+
+    public synchronized long getSendCount() {
+        return sendCount;
+    }
+
+    public synchronized long getReopenCount() {
+        return reopenCount;
+    }
+
+    public synchronized long getLastLatencyNanos() {
+        return lastLatency;
+    }
+
+    public synchronized long getMaxLatencyNanos() {
+        return maxLatency;
+    }
+
+    public synchronized long getAverageLatencyNanos() {
+        return sendCount == 0 ? 0 : totalLatency / sendCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d sends, avg %d us, max %d us, %d reopens",
+                device.getDeviceInfo().getName(), sendCount,
+                getAverageLatencyNanos() / 1000, maxLatency / 1000, reopenCount);
+    }
+}
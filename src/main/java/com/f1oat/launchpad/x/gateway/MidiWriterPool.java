@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writer threads shared by the output queues of every gateway in the
+ * process. Each queue is served by a single writer, so its messages keep
+ * their order; a writer sends one message of each of its queues in turn.
+ * A new writer is started as long as the pool size is not reached,
+ * otherwise the queue goes to the least loaded writer, one without a
+ * queue of the other kind when possible: Launchpad-X LED queues and
+ * FL-Studio queues are not mixed. Idle writers are parked until a message
+ * is queued, and stop once their last queue is detached.
+ * Queues sharing a writer are not isolated from each other: a send that
+ * blocks, such as a stalled USB device, delays the other queues of the
+ * same writer, possibly those of another gateway. Give the pool one thread
+ * per output port to avoid it.
+ *
+ * @author f1oat
+ */
+public class MidiWriterPool {
+
+    private static final MidiWriterPool instance = new MidiWriterPool();
+
+    static class Writer implements Runnable {
+        private volatile MidiOutputQueue[] queues = new MidiOutputQueue[0];
+        private volatile boolean parked = false;
+        private volatile boolean running = true;
+        private final Thread thread;
+
+        Writer(int number) {
+            thread = new Thread(this, "MIDI writer " + number);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+        }
+
+        void wake() {
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private boolean accepts(boolean leds) {
+            for (MidiOutputQueue q : queues) {
+                if (q.isLeds() != leds) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isIdle() {
+            for (MidiOutputQueue q : queues) {
+                if (!q.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                boolean busy = false;
+                MidiOutputQueue[] q = queues;
+                for (int i = 0; i < q.length; i++) {
+                    busy |= q[i].sendNext();
+                }
+                if (!busy) {
+                    parked = true;
+                    // Checked after raising the flag, a concurrent offer either sees it or is seen here
+                    if (isIdle() && running) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                }
+            }
+        }
+    }
+
+    private final List<Writer> writers = new ArrayList<>();
+    private int size = 4;
+    private int started = 0;
+
+    public static MidiWriterPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param size maximum number of writer threads, applies to queues started afterwards
+     */
+    public synchronized void setSize(int size) {
+        this.size = Math.max(1, size);
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    public synchronized int getThreadCount() {
+        return writers.size();
+    }
+
+    synchronized Writer attach(MidiOutputQueue queue) {
+        Writer best = null;
+        Writer any = null;
+        for (Writer w : writers) {
+            if (w.accepts(queue.isLeds()) && (best == null || w.queues.length < best.queues.length)) {
+                best = w;
+            }
+            if (any == null || w.queues.length < any.queues.length) {
+                any = w;
+            }
+        }
+        if (best == null && writers.size() >= size) {
+            best = any;     // Pool too small to keep the kinds apart
+        }
+        if (best == null || (best.queues.length > 0 && writers.size() < size)) {
+            best = new Writer(started++);
+            writers.add(best);
+            best.thread.start();
+        }
+        MidiOutputQueue[] q = Arrays.copyOf(best.queues, best.queues.length + 1);
+        q[q.length - 1] = queue;
+        best.queues = q;
+        best.wake();
+        return best;
+    }
+
+    synchronized void detach(MidiOutputQueue queue, Writer writer) {
+        List<MidiOutputQueue> q = new ArrayList<>(Arrays.asList(writer.queues));
+        q.remove(queue);
+        writer.queues = q.toArray(new MidiOutputQueue[0]);
+        if (q.isEmpty()) {
+            writers.remove(writer);
+            writer.running = false;
+            LockSupport.unpark(writer.thread);
+        }
+    }
+}
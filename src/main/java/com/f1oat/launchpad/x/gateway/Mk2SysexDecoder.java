@@ -0,0 +1,209 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+/**
+ * Decodes the Launchpad MK2 lighting SysEx sent by FL-Studio, with one
+ * handler per command byte. LED numbers are translated to the Launchpad-X
+ * layout, colours are left as sent: 0..127 palette entries or 0..63 RGB.
+ *
+ * @author f1oat
+ */
+public class Mk2SysexDecoder {
+
+    public interface LedSink {
+        /**
+         * @param r,g,b MK2 components, 0..63
+         */
+        void setRgb(int index, int r, int g, int b);
+
+        /**
+         * @param type LedTranslator.STATIC, FLASH or PULSE
+         */
+        void setPalette(int index, int type, int colour);
+
+        void setLayout(int layout);
+    }
+
+    private interface Command {
+        /**
+         * @param from first payload byte
+         * @param to index of F7h
+         */
+        void decode(byte[] data, int from, int to, LedSink sink);
+    }
+
+    private static final byte[] MK2_HEADER = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 18h");
+
+    public static final int SET_PALETTE = 0x0A;
+    public static final int SET_RGB = 0x0B;
+    public static final int SET_COLUMN = 0x0C;
+    public static final int SET_ROW = 0x0D;
+    public static final int SET_ALL = 0x0E;
+    public static final int SET_LAYOUT = 0x22;
+    public static final int FLASH = 0x23;
+    public static final int PULSE = 0x28;
+
+    private static final int[] LED_MAP = new int[128];  // MK2 LED number to Launchpad-X one, -1 if none
+    private final Command[] commands = new Command[128];
+
+    private long decodedCount = 0;
+    private long ignoredCount = 0;
+
+    static {
+        for (int i = 0; i < LED_MAP.length; i++) {
+            LED_MAP[i] = LedScheduler.isValidLed(i) ? i : -1;
+        }
+        for (int i = 0; i < 8; i++) {
+            LED_MAP[104 + i] = 91 + i;      // MK2 top row uses CC numbers
+        }
+    }
+
+    public Mk2SysexDecoder() {
+        commands[SET_PALETTE] = Mk2SysexDecoder::palette;
+        commands[SET_RGB] = Mk2SysexDecoder::rgb;
+        commands[SET_COLUMN] = Mk2SysexDecoder::column;
+        commands[SET_ROW] = Mk2SysexDecoder::row;
+        commands[SET_ALL] = Mk2SysexDecoder::all;
+        commands[SET_LAYOUT] = (data, from, to, sink) -> {
+            if (from < to) {
+                sink.setLayout(data[from]);
+            }
+        };
+        commands[FLASH] = (data, from, to, sink) -> animated(data, from, to, sink, LedTranslator.FLASH);
+        commands[PULSE] = (data, from, to, sink) -> animated(data, from, to, sink, LedTranslator.PULSE);
+    }
+
+    /**
+     * @return Launchpad-X LED number of a MK2 LED, or -1
+     */
+    public static int mapLed(int mk2) {
+        return LED_MAP[mk2 & 0x7F];
+    }
+
+    /**
+     * @param data complete MK2 SysEx, F0h ... F7h
+     * @param size number of valid bytes in data
+     * @return false if the message is not a supported MK2 command
+     */
+    public boolean decode(byte[] data, int size, LedSink sink) {
+        if (size < MK2_HEADER.length + 2 || data[size - 1] != (byte) 0xF7) {
+            ignoredCount++;
+            return false;
+        }
+        for (int i = 0; i < MK2_HEADER.length; i++) {
+            if (data[i] != MK2_HEADER[i]) {
+                ignoredCount++;
+                return false;
+            }
+        }
+        Command command = commands[data[MK2_HEADER.length] & 0x7F];
+        if (command == null) {
+            ignoredCount++;
+            return false;
+        }
+        command.decode(data, MK2_HEADER.length + 1, size - 1, sink);
+        decodedCount++;
+        return true;
+    }
+
+    public long getDecodedCount() {
+        return decodedCount;
+    }
+
+    public long getIgnoredCount() {
+        return ignoredCount;
+    }
+
+    // <LED> <colour> ...
+    private static void palette(byte[] data, int from, int to, LedSink sink) {
+        for (int i = from; i + 2 <= to; i += 2) {
+            int index = mapLed(data[i]);
+            if (index >= 0) {
+                sink.setPalette(index, LedTranslator.STATIC, data[i + 1] & 0x7F);
+            }
+        }
+    }
+
+    // <LED> <r> <g> <b> ...
+    private static void rgb(byte[] data, int from, int to, LedSink sink) {
+        for (int i = from; i + 4 <= to; i += 4) {
+            int index = mapLed(data[i]);
+            if (index >= 0) {
+                sink.setRgb(index, data[i + 1] & 0x3F, data[i + 2] & 0x3F, data[i + 3] & 0x3F);
+            }
+        }
+    }
+
+    // <column> <colour> ... columns 0..7 include the top row button, 8 is the right side column
+    private static void column(byte[] data, int from, int to, LedSink sink) {
+        for (int i = from; i + 2 <= to; i += 2) {
+            int col = data[i];
+            int colour = data[i + 1] & 0x7F;
+            if (col < 0 || col > 8) {
+                continue;
+            }
+            for (int row = 1; row <= 8; row++) {
+                sink.setPalette(10 * row + col + 1, LedTranslator.STATIC, colour);
+            }
+            if (col < 8) {
+                sink.setPalette(91 + col, LedTranslator.STATIC, colour);
+            }
+        }
+    }
+
+    // <row> <colour> ... rows 0..7 from the bottom include the side button, 8 is the top row
+    private static void row(byte[] data, int from, int to, LedSink sink) {
+        for (int i = from; i + 2 <= to; i += 2) {
+            int row = data[i];
+            int colour = data[i + 1] & 0x7F;
+            if (row < 0 || row > 8) {
+                continue;
+            }
+            int last = (row < 8) ? 9 : 8;
+            for (int col = 1; col <= last; col++) {
+                sink.setPalette(10 * (row + 1) + col, LedTranslator.STATIC, colour);
+            }
+        }
+    }
+
+    // <colour>
+    private static void all(byte[] data, int from, int to, LedSink sink) {
+        if (from >= to) {
+            return;
+        }
+        int colour = data[from] & 0x7F;
+        for (int row = 1; row <= 9; row++) {
+            int last = (row < 9) ? 9 : 8;
+            for (int col = 1; col <= last; col++) {
+                sink.setPalette(10 * row + col, LedTranslator.STATIC, colour);
+            }
+        }
+    }
+
+    // [00h] <LED> <colour> ... the leading 00h is optional
+    private static void animated(byte[] data, int from, int to, LedSink sink, int type) {
+        if (((to - from) & 1) != 0) {
+            from++;
+        }
+        for (int i = from; i + 2 <= to; i += 2) {
+            int index = mapLed(data[i]);
+            if (index >= 0) {
+                sink.setPalette(index, type, data[i + 1] & 0x7F);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.Arrays;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Launchpad-X to FL-Studio routing, compiled into one 128-entry table per
+ * input status byte, so that routing a message costs two array loads; the
+ * velocity or value tables are kept per status byte and number likewise.
+ * By default grid pads keep their note number, the top row (5Bh and above)
+ * becomes CC 68h and above, as expected by the FL-Studio MK2 script; CC
+ * input is handled as notes.
+ * Rules are applied on top of the default with remap() and setVelocity(),
+ * before the map is handed to MidiHandler; it is not modified afterwards.
+ *
+ * @author f1oat
+ */
+public class PadMap {
+
+    public static final int UNMAPPED = -1;
+    public static final int ANY_CHANNEL = -1;
+    public static final int SAME = -2;
+
+    private final int[][] routes = new int[256][];      // By input status: packed output status and number
+    private final byte[][][] values = new byte[256][][];  // By input status and number: output velocity or value
+    private static final byte[] IDENTITY = new byte[128];
+
+    static {
+        for (int i = 0; i < 128; i++) {
+            IDENTITY[i] = (byte) i;
+        }
+    }
+
+    public PadMap() {
+        for (int status = 0; status < 256; status++) {
+            routes[status] = new int[128];
+            values[status] = new byte[128][];
+            Arrays.fill(values[status], IDENTITY);
+            int command = status & 0xF0;
+            int channel = status & 0x0F;
+            for (int pad = 0; pad < 128; pad++) {
+                int route = UNMAPPED;
+                if (command == ShortMessage.NOTE_ON || command == ShortMessage.POLY_PRESSURE
+                        || command == ShortMessage.CONTROL_CHANGE) {
+                    int out = (command == ShortMessage.CONTROL_CHANGE) ? ShortMessage.NOTE_ON : command;
+                    if (pad < 0x5B) {
+                        route = pack(out | channel, pad);
+                    } else if (pad - 0x5B + 0x68 < 128) {
+                        route = pack(ShortMessage.CONTROL_CHANGE | channel, pad - 0x5B + 0x68);
+                    }
+                }
+                routes[status][pad] = route;
+            }
+        }
+    }
+
+    private static int pack(int status, int number) {
+        return (status << 8) | number;
+    }
+
+    /**
+     * @return packed output, see status() and number(), or UNMAPPED
+     */
+    public int route(int status, int data1) {
+        return routes[status & 0xFF][data1 & 0x7F];
+    }
+
+    /**
+     * @return output velocity or value
+     */
+    public int value(int status, int data1, int data2) {
+        return values[status & 0xFF][data1 & 0x7F][data2 & 0x7F];
+    }
+
+    public static int status(int route) {
+        return route >> 8;
+    }
+
+    public static int number(int route) {
+        return route & 0x7F;
+    }
+
+    /**
+     * Changes the routing of a range of input numbers
+     * @param command input command: NOTE_ON, POLY_PRESSURE or CONTROL_CHANGE
+     * @param channel input channel, or ANY_CHANNEL
+     * @param outCommand output command, SAME to keep the current one, UNMAPPED to drop the messages
+     * @param outNumber output number of from, following ones are consecutive, SAME to keep the current ones
+     * @param outChannel output channel, SAME to keep the current one
+     */
+    public void remap(int command, int channel, int from, int to, int outCommand, int outNumber, int outChannel) {
+        for (int ch = 0; ch < 16; ch++) {
+            if (channel != ANY_CHANNEL && channel != ch) {
+                continue;
+            }
+            int[] table = routes[command | ch];
+            for (int n = Math.max(0, from); n <= Math.min(127, to); n++) {
+                if (outCommand == UNMAPPED) {
+                    table[n] = UNMAPPED;
+                    continue;
+                }
+                int current = table[n];
+                int currentStatus = (current == UNMAPPED) ? (command | ch) : status(current);
+                int status = ((outCommand == SAME) ? currentStatus & 0xF0 : outCommand)
+                        | ((outChannel == SAME) ? currentStatus & 0x0F : outChannel);
+                int number = (outNumber == SAME) ? ((current == UNMAPPED) ? n : number(current)) : outNumber + n - from;
+                table[n] = (number >= 0 && number < 128) ? pack(status, number) : UNMAPPED;
+            }
+        }
+    }
+
+    /**
+     * Sets the velocity or value translation of a range of input numbers
+     * @param command input command: NOTE_ON, POLY_PRESSURE or CONTROL_CHANGE
+     * @param channel input channel, or ANY_CHANNEL
+     */
+    public void setVelocity(int command, int channel, int from, int to, VelocityCurve curve) {
+        byte[] table = new byte[128];
+        for (int v = 0; v < 128; v++) {
+            table[v] = (byte) curve.apply(v);
+        }
+        for (int ch = 0; ch < 16; ch++) {
+            if (channel != ANY_CHANNEL && channel != ch) {
+                continue;
+            }
+            for (int n = Math.max(0, from); n <= Math.min(127, to); n++) {
+                values[command | ch][n] = table;
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.Arrays;
+
+/**
+ * Reverse lookup from MK2 RGB colours (6 bits per component) to palette
+ * indexes, so that a pad can be lit with a 2 bytes static spec instead of
+ * a 4 bytes RGB one. The table holds one byte per possible colour.
+ *
+ * @author f1oat
+ */
+public class PaletteMatcher {
+
+    public static final int DISABLED = -1;
+    public static final int EXACT = 0;
+
+    private static final int NO_MATCH = -1;
+
+    private volatile byte[] table = null;
+    private int maxDistance = DISABLED;
+
+    public PaletteMatcher() {
+        setMaxDistance(EXACT);
+    }
+
+    private static int key(int r, int g, int b) {
+        return ((r & 0x3F) << 12) | ((g & 0x3F) << 6) | (b & 0x3F);
+    }
+
+    /**
+     * @param maxDistance DISABLED, EXACT, or the largest euclidean distance
+     * in 6 bits RGB space accepted for a nearest match
+     */
+    public synchronized void setMaxDistance(int maxDistance) {
+        if (maxDistance == this.maxDistance) {
+            return;
+        }
+        this.maxDistance = maxDistance;
+        table = (maxDistance < 0) ? null : build(maxDistance);
+    }
+
+    public synchronized int getMaxDistance() {
+        return maxDistance;
+    }
+
+    private static byte[] build(int maxDistance) {
+        byte[] t = new byte[1 << 18];
+        Arrays.fill(t, (byte) NO_MATCH);
+        int[] pr = new int[LpxPalette.SIZE];
+        int[] pg = new int[LpxPalette.SIZE];
+        int[] pb = new int[LpxPalette.SIZE];
+        for (int i = LpxPalette.SIZE - 1; i >= 0; i--) {    // Lowest index wins on duplicates
+            int rgb = LpxPalette.rgb(i);
+            pr[i] = (rgb >> 18) & 0x3F;
+            pg[i] = (rgb >> 10) & 0x3F;
+            pb[i] = (rgb >> 2) & 0x3F;
+            t[key(pr[i], pg[i], pb[i])] = (byte) i;
+        }
+        if (maxDistance == EXACT) {
+            return t;
+        }
+        int limit = maxDistance * maxDistance;
+        for (int k = 0; k < t.length; k++) {
+            if (t[k] != NO_MATCH) {
+                continue;
+            }
+            int r = k >> 12;
+            int g = (k >> 6) & 0x3F;
+            int b = k & 0x3F;
+            int best = NO_MATCH;
+            int bestDistance = limit + 1;
+            for (int i = 0; i < LpxPalette.SIZE; i++) {
+                int dr = r - pr[i];
+                int dg = g - pg[i];
+                int db = b - pb[i];
+                int d = dr * dr + dg * dg + db * db;
+                if (d < bestDistance) {
+                    bestDistance = d;
+                    best = i;
+                }
+            }
+            t[k] = (byte) best;
+        }
+        return t;
+    }
+
+    /**
+     * @param r,g,b MK2 components, 0..63
+     * @return palette index, or -1 if the colour has to be sent as RGB
+     */
+    public int match(int r, int g, int b) {
+        byte[] t = table;
+        return (t == null) ? NO_MATCH : t[key(r, g, b)];
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Thins polyphonic aftertouch before it reaches FL-Studio.
+ * A pressure message is dropped when it differs from the last one sent for
+ * the same pad by less than the minimum delta. When it comes too soon after
+ * it, it is held as pending and sent by flush() once the interval has
+ * elapsed, unless a newer value replaces it: a held pad always ends on its
+ * last pressure. Notes and pressure release (0) always go through.
+ * Counters can be read from anywhere.
+ *
+ * @author f1oat
+ */
+public class PressureThinner {
+
+    public interface Sink {
+        void pressure(int channel, int pad, int value);
+    }
+
+    private static final int NB_KEYS = 16 * 128;   // channel x pad
+    private static final long MIN_FLUSH_PERIOD = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int[] lastValue = new int[NB_KEYS];
+    private final long[] lastTime = new long[NB_KEYS];
+    private final int[] pendingValue = new int[NB_KEYS];
+    private int pendingCount = 0;
+
+    private volatile int minDelta = 2;
+    private volatile long minInterval = 0;
+
+    private Sink sink = null;
+    private ScheduledExecutorService timer = null;
+
+    private volatile long passedCount = 0;
+    private volatile long deltaDroppedCount = 0;
+    private volatile long rateDroppedCount = 0;
+    private volatile long flushedCount = 0;
+
+    public PressureThinner() {
+        Arrays.fill(lastValue, -1);
+        Arrays.fill(pendingValue, -1);
+    }
+
+    /**
+     * @param minDelta smallest pressure change forwarded, 1 forwards every change
+     */
+    public void setMinDelta(int minDelta) {
+        this.minDelta = Math.max(1, minDelta);
+    }
+
+    /**
+     * @param maxRate pressure messages per second and per pad, 0 for no limit
+     */
+    public synchronized void setMaxRate(int maxRate) {
+        this.minInterval = (maxRate > 0) ? 1000000000L / maxRate : 0;
+        if (sink != null) {
+            start(sink);
+        }
+    }
+
+    /**
+     * Sends the pending values from a background thread, only needed with a rate limit
+     */
+    public synchronized void start(Sink sink) {
+        stop();
+        this.sink = sink;
+        if (minInterval > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+                Thread t = new Thread(r, "Pressure flush");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(MIN_FLUSH_PERIOD, minInterval / 2);
+            timer.scheduleAtFixedRate(() -> flush(sink), period, period, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        sink = null;
+    }
+
+    /**
+     * @return true if the message must be forwarded
+     */
+    public synchronized boolean accept(int command, int channel, int pad, int value) {
+        int key = (channel << 7) | pad;
+        switch (command) {
+            case ShortMessage.NOTE_ON:
+            case ShortMessage.NOTE_OFF:
+                lastValue[key] = -1;    // New touch, next pressure goes through
+                clearPending(key);
+                passedCount++;
+                return true;
+            case ShortMessage.POLY_PRESSURE:
+                break;
+            default:
+                passedCount++;
+                return true;
+        }
+
+        long now = System.nanoTime();
+        int last = lastValue[key];
+        if (value != 0 && last >= 0) {
+            if (Math.abs(value - last) < minDelta) {
+                clearPending(key);      // Back close to what was sent
+                deltaDroppedCount++;
+                return false;
+            }
+            if (now - lastTime[key] < minInterval) {
+                if (pendingValue[key] < 0) {
+                    pendingCount++;
+                }
+                pendingValue[key] = value;
+                rateDroppedCount++;
+                return false;
+            }
+        }
+        clearPending(key);
+        lastValue[key] = value;
+        lastTime[key] = now;
+        passedCount++;
+        return true;
+    }
+
+    private void clearPending(int key) {
+        if (pendingValue[key] >= 0) {
+            pendingValue[key] = -1;
+            pendingCount--;
+        }
+    }
+
+    /**
+     * Sends the pending values whose interval has elapsed
+     */
+    public synchronized void flush(Sink sink) {
+        if (pendingCount == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (int key = 0; key < NB_KEYS && pendingCount > 0; key++) {
+            int value = pendingValue[key];
+            if (value < 0 || now - lastTime[key] < minInterval) {
+                continue;
+            }
+            clearPending(key);
+            lastValue[key] = value;
+            lastTime[key] = now;
+            flushedCount++;
+            sink.pressure(key >> 7, key & 0x7F, value);
+        }
+    }
+
+    public long getPassedCount() {
+        return passedCount;
+    }
+
+    public long getDeltaDroppedCount() {
+        return deltaDroppedCount;
+    }
+
+    /**
+     * @return pressure messages held back, some of them sent later by flush()
+     */
+    public long getRateDroppedCount() {
+        return rateDroppedCount;
+    }
+
+    public long getFlushedCount() {
+        return flushedCount;
+    }
+
+    public long getDroppedCount() {
+        return deltaDroppedCount + rateDroppedCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Pressure: %d passed, %d dropped (delta), %d delayed (rate), %d flushed",
+                passedCount, deltaDroppedCount, rateDroppedCount, flushedCount);
+    }
+}
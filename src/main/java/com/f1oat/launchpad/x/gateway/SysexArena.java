@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Off-heap storage for SysEx bodies: one direct buffer cut into fixed size
+ * regions, allocated once. put() and get() work on per-region views, so
+ * the caller must own the region, as a queue slot owner does. Threads that
+ * read shared regions concurrently use their own Reader.
+ *
+ * @author f1oat
+ */
+public class SysexArena {
+
+    private final ByteBuffer memory;
+    private final ByteBuffer[] views;
+    private final int regionSize;
+
+    public SysexArena(int regions, int regionSize) {
+        this.regionSize = Math.max(0, regionSize);
+        memory = ByteBuffer.allocateDirect(regions * this.regionSize);
+        views = new ByteBuffer[regions];
+        for (int i = 0; i < regions; i++) {
+            memory.limit((i + 1) * this.regionSize).position(i * this.regionSize);
+            views[i] = memory.slice();
+        }
+        memory.clear();
+    }
+
+    public int getRegions() {
+        return views.length;
+    }
+
+    public int getRegionSize() {
+        return regionSize;
+    }
+
+    /**
+     * @param length at most getRegionSize()
+     */
+    public void put(int region, byte[] src, int length) {
+        ByteBuffer view = views[region];
+        view.clear();
+        view.put(src, 0, length);
+    }
+
+    public void get(int region, byte[] dst, int length) {
+        ByteBuffer view = views[region];
+        view.clear();
+        view.get(dst, 0, length);
+    }
+
+    public Reader newReader() {
+        return new Reader();
+    }
+
+    /**
+     * Read access for one thread, independent of the other readers
+     */
+    public class Reader {
+        private final ByteBuffer view = memory.duplicate();
+
+        public void get(int region, byte[] dst, int length) {
+            view.limit(region * regionSize + length).position(region * regionSize);
+            view.get(dst, 0, length);
+        }
+    }
+}
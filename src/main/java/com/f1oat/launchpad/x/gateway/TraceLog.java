@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+/**
+ * Console trace of short MIDI messages, attached as an EventBus consumer
+ * so that the MIDI callback never waits on console I/O.
+ *
+ * @author f1oat
+ */
+public class TraceLog implements EventBus.Handler {
+
+    private volatile boolean enabled = false;
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void onShort(int status, int data1, int data2, long nanos) {
+        if (enabled) {
+            System.out.printf("%02X %02X %02X\n", status, data1, data2);
+        }
+    }
+
+    @Override
+    public void onMessage(byte[] data, int length, long nanos) {
+    }
+}
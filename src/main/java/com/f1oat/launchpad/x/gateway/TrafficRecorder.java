@@ -0,0 +1,187 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends the MIDI messages received by the gateway to a binary log, for
+ * offline replay with TrafficReplayer. The file starts with MAGIC, then
+ * holds one record per message:
+ * <pre>
+ *   direction   1 byte, FROM_FL or FROM_LPX
+ *   delay       varint, microseconds since the previous record
+ *   length      varint
+ *   data        length bytes
+ * </pre>
+ * A new recording session appended to an existing file starts with a delay of 0.
+ *
+ * @author f1oat
+ */
+public class TrafficRecorder {
+
+    public static final byte[] MAGIC = {'L', 'P', 'X', 'R', 1};
+    public static final int FROM_FL = 0;
+    public static final int FROM_LPX = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private volatile boolean recording = false;
+    private OutputStream out = null;
+    private File file = null;
+    private long lastTime = 0;
+    private boolean first = true;
+    private long recordCount = 0;
+    private final byte[] shortData = new byte[3];
+
+    /**
+     * Starts appending to a log, creating it if needed
+     */
+    public void open(File file) throws IOException {
+        close();
+        synchronized (this) {
+            boolean empty = !file.exists() || file.length() == 0;
+            out = new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE);
+            if (empty) {
+                out.write(MAGIC);
+            }
+            this.file = file;
+            first = true;
+        }
+        recording = true;
+    }
+
+    /**
+     * Closes the log, the attached buses should be synced first
+     */
+    public void close() {
+        if (!recording) {
+            return;
+        }
+        recording = false;
+        closeStream();
+    }
+
+    private synchronized void closeStream() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException ex) {
+            Logger.getLogger(TrafficRecorder.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        out = null;
+    }
+
+    public boolean isOpen() {
+        return recording;
+    }
+
+    public synchronized File getFile() {
+        return file;
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Records the events of both buses from one consumer thread, not from the
+     * MIDI callbacks, merged in time stamp order
+     * @return to be closed once recording is over
+     */
+    public EventBus.Consumer attach(EventBus fromFl, EventBus fromLpx) {
+        return EventBus.subscribe("Traffic recorder", new EventBus[]{fromFl, fromLpx},
+                new EventBus.Handler[]{handler(FROM_FL), handler(FROM_LPX)});
+    }
+
+    private EventBus.Handler handler(int direction) {
+        return new EventBus.Handler() {
+            @Override
+            public void onShort(int status, int data1, int data2, long nanos) {
+                recordShort(direction, status, data1, data2, nanos);
+            }
+
+            @Override
+            public void onMessage(byte[] data, int length, long nanos) {
+                record(direction, data, length, nanos);
+            }
+        };
+    }
+
+    public void recordShort(int direction, int status, int data1, int data2, long nanos) {
+        if (recording) {
+            writeShort(direction, status, data1, data2, nanos);
+        }
+    }
+
+    /**
+     * @param nanos System.nanoTime() when the message was received
+     */
+    public void record(int direction, byte[] data, int length, long nanos) {
+        if (recording) {
+            write(direction, data, length, nanos);
+        }
+    }
+
+    private synchronized void writeShort(int direction, int status, int data1, int data2, long nanos) {
+        shortData[0] = (byte) status;
+        shortData[1] = (byte) data1;
+        shortData[2] = (byte) data2;
+        write(direction, shortData, 3, nanos);
+    }
+
+    private synchronized void write(int direction, byte[] data, int length, long nanos) {
+        if (out == null) {
+            return;
+        }
+        long delay = 0;
+        if (first) {
+            lastTime = nanos;
+            first = false;
+        } else {
+            // Never backwards, and rounding is carried over so that replay does not drift
+            delay = Math.max(0, (nanos - lastTime) / 1000);
+            lastTime += delay * 1000;
+        }
+        try {
+            out.write(direction);
+            writeVarint(delay);
+            writeVarint(length);
+            out.write(data, 0, length);
+            recordCount++;
+        } catch (IOException ex) {
+            Logger.getLogger(TrafficRecorder.class.getName()).log(Level.SEVERE, null, ex);
+            recording = false;
+            closeStream();
+        }
+    }
+
+    private void writeVarint(long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+}
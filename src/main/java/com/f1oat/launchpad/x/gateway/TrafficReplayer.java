@@ -0,0 +1,176 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * Plays a TrafficRecorder log back into the gateway through virtual
+ * devices standing in for FL-Studio and the Launchpad-X.
+ *
+ * @author f1oat
+ */
+public class TrafficReplayer {
+
+    public static final double FASTEST = 0;
+
+    private final VirtualMidiDevice flSource;
+    private final VirtualMidiDevice lpxSource;
+    private final ShortMessage shortMessage = new ShortMessage();
+    private final SysexMessage sysexMessage = new SysexMessage();
+    private long skippedCount = 0;
+
+    /**
+     * @param flSource plays the FL-Studio output port, the gateway fl_in
+     * @param lpxSource plays the Launchpad-X output port, the gateway lpx_in
+     */
+    public TrafficReplayer(VirtualMidiDevice flSource, VirtualMidiDevice lpxSource) {
+        this.flSource = flSource;
+        this.lpxSource = lpxSource;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @param speed 1 for original timing, 2 for twice as fast, FASTEST to ignore timing
+     * @return number of messages replayed
+     */
+    public long replay(File file, double speed) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024)) {
+            return replay(in, speed);
+        }
+    }
+
+    public long replay(InputStream input, double speed) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        byte[] magic = new byte[TrafficRecorder.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, TrafficRecorder.MAGIC)) {
+            throw new IOException("Not a traffic log");
+        }
+        byte[] data = new byte[LedTranslator.MAX_FRAME];
+        long count = 0;
+        long deadline = System.nanoTime();
+        while (true) {
+            int direction = in.read();
+            if (direction < 0) {
+                break;
+            }
+            long delay = readVarint(in);
+            int length = (int) readVarint(in);
+            if (length > data.length) {
+                data = new byte[length];
+            }
+            in.readFully(data, 0, length);
+
+            if (speed > 0) {
+                deadline += (long) (delay * 1000 / speed);
+                long wait;
+                while ((wait = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            MidiMessage msg = toMessage(data, length);
+            if (msg == null) {
+                skippedCount++;
+                continue;
+            }
+            VirtualMidiDevice source = (direction == TrafficRecorder.FROM_FL) ? flSource : lpxSource;
+            source.send(msg, -1);
+            count++;
+        }
+        return count;
+    }
+
+    private MidiMessage toMessage(byte[] data, int length) {
+        try {
+            if (length > 0 && (data[0] & 0xFF) == SysexMessage.SYSTEM_EXCLUSIVE) {
+                sysexMessage.setMessage(data, length);
+                return sysexMessage;
+            }
+            if (length == 3) {
+                shortMessage.setMessage(data[0] & 0xFF, data[1] & 0xFF, data[2] & 0xFF);
+                return shortMessage;
+            }
+        } catch (InvalidMidiDataException ex) {
+            Logger.getLogger(TrafficReplayer.class.getName()).log(Level.FINE, null, ex);
+        }
+        return null;
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Bad varint");
+    }
+
+    /**
+     * Replays a log into a gateway wired to virtual devices, then prints its metrics.
+     * Arguments: log file, then speed factor (default 1, 0 for as fast as possible)
+     */
+    public static void main(String args[]) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TrafficReplayer <log file> [speed]");
+            System.exit(2);
+        }
+        System.setProperty("java.awt.headless", "true");
+        double speed = (args.length > 1) ? Double.parseDouble(args[1]) : 1;
+
+        VirtualMidiDevice fl_in = new VirtualMidiDevice("FL_to_LPX");
+        VirtualMidiDevice lpx_in = new VirtualMidiDevice("LPX MIDI in");
+        MidiHandler midi = new MidiHandler();
+        GatewayConfig.loadReadOnly().apply(midi);     // Same tuning as the gateway, config.toml left as is
+        midi.setRecordFile(null);
+        midi.set(fl_in, new VirtualMidiDevice("LPX_to_FL"), new VirtualMidiDevice("LPX_to_FL (Native)"),
+                lpx_in, new VirtualMidiDevice("LPX MIDI out"));
+        midi.start();
+
+        TrafficReplayer replayer = new TrafficReplayer(fl_in, lpx_in);
+        long t0 = System.nanoTime();
+        long count = replayer.replay(new File(args[0]), speed);
+        long elapsed = System.nanoTime() - t0;
+        midi.stop();
+
+        System.out.printf("%d messages replayed in %d ms (%.0f msg/s), %d skipped%n",
+                count, elapsed / 1000000, count * 1e9 / Math.max(1, elapsed), replayer.getSkippedCount());
+        System.out.println(midi.getMetrics().getSummary());
+    }
+}
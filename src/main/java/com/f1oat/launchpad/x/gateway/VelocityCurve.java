@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+/**
+ * Velocity or pressure translation, computed once into a 128-entry table.
+ * 0 always gives 0 and other values never give 0, so that presses and
+ * releases are kept. Immutable, curves are changed by swapping instances.
+ *
+ * @author f1oat
+ */
+public final class VelocityCurve {
+
+    public static final VelocityCurve LINEAR = breakpoints("linear", new int[][]{{0, 0}, {127, 127}});
+
+    private final String name;
+    private final byte[] table = new byte[128];
+
+    private interface Function {
+        double apply(double x);     // 0..1 to 0..1
+    }
+
+    private VelocityCurve(String name, Function f) {
+        this.name = name;
+        for (int v = 1; v < 128; v++) {
+            long out = Math.round(127 * f.apply(v / 127.0));
+            table[v] = (byte) Math.max(1, Math.min(127, out));
+        }
+    }
+
+    /**
+     * Soft curve, light presses are raised
+     * @param amount bending, above 0
+     */
+    public static VelocityCurve log(String name, double amount) {
+        return new VelocityCurve(name, (x) -> Math.log1p(amount * x) / Math.log1p(amount));
+    }
+
+    /**
+     * Hard curve, light presses are lowered
+     * @param amount bending, above 0
+     */
+    public static VelocityCurve exp(String name, double amount) {
+        return new VelocityCurve(name, (x) -> Math.expm1(amount * x) / Math.expm1(amount));
+    }
+
+    public static VelocityCurve fixed(String name, int value) {
+        return new VelocityCurve(name, (x) -> value / 127.0);
+    }
+
+    /**
+     * @param points input and output values, by increasing input, linearly interpolated
+     */
+    public static VelocityCurve breakpoints(String name, int[][] points) {
+        return new VelocityCurve(name, (x) -> {
+            double v = x * 127;
+            double out = v;
+            for (int i = 0; i < points.length; i++) {
+                int[] p = points[i];
+                if (v <= p[0]) {
+                    if (i == 0) {
+                        return p[1] / 127.0;
+                    }
+                    int[] q = points[i - 1];
+                    return (q[1] + (p[1] - q[1]) * (v - q[0]) / Math.max(1, p[0] - q[0])) / 127.0;
+                }
+                out = p[1];
+            }
+            return out / 127.0;
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int apply(int value) {
+        return table[value & 0x7F];
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
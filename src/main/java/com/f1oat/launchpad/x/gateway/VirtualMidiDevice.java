@@ -0,0 +1,155 @@
+/*
+ * Copyright 2020 Frederic Rible <f1oat@f1oat.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Transmitter;
+
+/**
+ * In-memory MIDI device: whatever is sent to one of its receivers, or to
+ * send(), is handed as is to the receivers attached to its transmitters.
+ * Used as a stand-in for real ports, no hardware or driver needed.
+ *
+ * @author f1oat
+ */
+public class VirtualMidiDevice implements MidiDevice {
+
+    private static class VirtualInfo extends MidiDevice.Info {
+        VirtualInfo(String name, String description) {
+            super(name, "f1oat", description, "1.0");
+        }
+    }
+
+    private class VirtualTransmitter implements Transmitter {
+        private volatile Receiver receiver = null;
+
+        @Override
+        public void setReceiver(Receiver receiver) {
+            this.receiver = receiver;
+        }
+
+        @Override
+        public Receiver getReceiver() {
+            return receiver;
+        }
+
+        @Override
+        public void close() {
+            transmitters.remove(this);
+        }
+    }
+
+    private class VirtualReceiver implements Receiver {
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            VirtualMidiDevice.this.send(message, timeStamp);
+        }
+
+        @Override
+        public void close() {
+            receivers.remove(this);
+        }
+    }
+
+    private final Info info;
+    private final List<VirtualTransmitter> transmitters = new CopyOnWriteArrayList<>();
+    private final List<VirtualReceiver> receivers = new CopyOnWriteArrayList<>();
+    private volatile boolean open = false;
+
+    public VirtualMidiDevice(String name) {
+        this(name, "Virtual MIDI port");
+    }
+
+    public VirtualMidiDevice(String name, String description) {
+        info = new VirtualInfo(name, description);
+    }
+
+    /**
+     * Delivers a message to every attached receiver, on the calling thread
+     */
+    public void send(MidiMessage message, long timeStamp) {
+        for (VirtualTransmitter t : transmitters) {
+            Receiver r = t.receiver;
+            if (r != null) {
+                r.send(message, timeStamp);
+            }
+        }
+    }
+
+    @Override
+    public Info getDeviceInfo() {
+        return info;
+    }
+
+    @Override
+    public void open() {
+        open = true;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return -1;
+    }
+
+    @Override
+    public int getMaxReceivers() {
+        return -1;
+    }
+
+    @Override
+    public int getMaxTransmitters() {
+        return -1;
+    }
+
+    @Override
+    public Receiver getReceiver() {
+        VirtualReceiver r = new VirtualReceiver();
+        receivers.add(r);
+        return r;
+    }
+
+    @Override
+    public List<Receiver> getReceivers() {
+        return new ArrayList<>(receivers);
+    }
+
+    @Override
+    public Transmitter getTransmitter() {
+        VirtualTransmitter t = new VirtualTransmitter();
+        transmitters.add(t);
+        return t;
+    }
+
+    @Override
+    public List<Transmitter> getTransmitters() {
+        return new ArrayList<>(transmitters);
+    }
+}
@@ -22,5 +22,5 @@ package com.f1oat.launchpad.x.gateway;
 public interface iNotifier {
     public void udpateStatus();
     public void notifyError();
-    public void setPadColor(int index, int r, int g, int b);
+    public void notifyRunning(boolean running);
 }
@@ -0,0 +1,91 @@
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EventBusTest {
+    private static class Collector implements EventBus.Handler {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onShort(int status, int data1, int data2, long nanos) {
+            events.add(String.format("%02X %02X %02X @%d", status, data1, data2, nanos));
+        }
+
+        @Override
+        public void onMessage(byte[] data, int length, long nanos) {
+            events.add(Arrays.toString(Arrays.copyOf(data, length)) + " @" + nanos);
+        }
+    }
+
+    @Test public void testOrder() {
+        EventBus bus = new EventBus(8, 4);
+        Collector first = new Collector();
+        Collector second = new Collector();
+        bus.subscribe("first", first);
+        bus.subscribe("second", second);
+
+        bus.publishShort(0x90, 0x0B, 0x40, 1);
+        bus.publish(new byte[]{1, 2, 3}, 3, 2);
+        bus.publish(new byte[]{1, 2, 3, 4, 5, 6}, 6, 3);   // Longer than a slot
+        bus.publishShort(0x80, 0x0B, 0x00, 4);
+        assertTrue(bus.sync(5000));
+
+        List<String> expected = Arrays.asList("90 0B 40 @1", "[1, 2, 3] @2", "[1, 2, 3, 4, 5, 6] @3", "80 0B 00 @4");
+        assertEquals(expected, first.events);
+        assertEquals(expected, second.events);
+        assertEquals(0, bus.getLostCount());
+    }
+
+    @Test public void testSlowConsumer() throws InterruptedException {
+        EventBus bus = new EventBus(8, 0);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Collector collector = new Collector() {
+            @Override
+            public void onShort(int status, int data1, int data2, long nanos) {
+                super.onShort(status, data1, data2, nanos);
+                if (events.size() == 1) {
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        EventBus.Consumer consumer = bus.subscribe("slow", collector);
+
+        bus.publishShort(0xA0, 0, 0x10, 0);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 20; i++) {
+            bus.publishShort(0xA0, i, 0x10, i);    // Never waits on the consumer
+        }
+        release.countDown();
+        assertTrue(bus.sync(5000));
+
+        assertEquals(12, consumer.getLostCount());
+        assertEquals(9, collector.events.size());
+        assertEquals("A0 00 10 @0", collector.events.get(0));
+        assertEquals("A0 0D 10 @13", collector.events.get(1));
+        assertEquals("A0 14 10 @20", collector.events.get(8));
+    }
+
+    @Test public void testUnsubscribe() {
+        EventBus bus = new EventBus(8, 0);
+        Collector collector = new Collector();
+        EventBus.Consumer consumer = bus.subscribe("gone", collector);
+        bus.publishShort(0x90, 1, 1, 1);
+        assertTrue(bus.sync(5000));
+        bus.unsubscribe(consumer);
+        bus.publishShort(0x90, 2, 2, 2);
+        assertTrue(bus.sync(5000));
+        assertEquals(1, collector.events.size());
+    }
+}
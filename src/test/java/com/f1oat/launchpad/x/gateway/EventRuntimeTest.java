@@ -0,0 +1,34 @@
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EventRuntimeTest {
+    @Test public void testLaneOrder() {
+        EventRuntime.Lane lane = EventRuntime.getInstance().newLane("test");
+        List<Integer> seen = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final int n = i;
+            lane.execute(() -> seen.add(n));    // Not thread safe on purpose, tasks of a lane never overlap
+        }
+        assertTrue(lane.sync(5000));
+        assertEquals(1000, seen.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) seen.get(i));
+        }
+    }
+
+    @Test public void testFailingTask() {
+        EventRuntime.Lane lane = EventRuntime.getInstance().newLane("test");
+        AtomicInteger count = new AtomicInteger();
+        lane.execute(() -> {
+            throw new IllegalStateException("expected");
+        });
+        lane.execute(count::incrementAndGet);
+        assertTrue(lane.sync(5000));
+        assertEquals(1, count.get());
+    }
+}
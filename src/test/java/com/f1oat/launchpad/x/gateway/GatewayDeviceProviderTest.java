@@ -0,0 +1,72 @@
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class GatewayDeviceProviderTest {
+    private static class Collector implements Receiver {
+        final BlockingQueue<byte[]> messages = new ArrayBlockingQueue<>(16);
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            messages.offer(message.getMessage());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test public void testLoopbackThroughGateway() throws Exception {
+        MidiDeviceRegistry registry = MidiDeviceRegistry.getInstance();
+        registry.refresh();
+        MidiDevice fl_in = registry.find("Gateway FL_to_LPX", false);
+        MidiDevice fl_out = registry.find("Gateway LPX_to_FL", true);
+        MidiDevice fl_out_native = registry.find("Gateway LPX_to_FL (Native)", true);
+        MidiDevice lpx_in = registry.find("Gateway Loopback", false);
+        assertNotNull(fl_in);
+        assertNotNull(lpx_in);
+        VirtualMidiDevice lpx_out = new VirtualMidiDevice("LPX MIDI out");
+
+        Collector toFL = new Collector();
+        Collector toFLNative = new Collector();
+        Collector toLPX = new Collector();
+        fl_out.getTransmitter().setReceiver(toFL);
+        fl_out_native.getTransmitter().setReceiver(toFLNative);
+        lpx_out.getTransmitter().setReceiver(toLPX);
+
+        MidiHandler midi = new MidiHandler();
+        midi.setLedFrameRate(0);
+        midi.set(fl_in, fl_out, fl_out_native, lpx_in, lpx_out);
+        midi.start();
+        try {
+            assertArrayEquals(LedTranslator.LPX_PROGRAMMER_MODE, toLPX.messages.poll(1, TimeUnit.SECONDS));
+
+            lpx_in.getReceiver().send(new ShortMessage(ShortMessage.NOTE_ON, 0x0B, 0x40), -1);
+            byte[] note = toFL.messages.poll(1, TimeUnit.SECONDS);
+            assertNotNull(note);
+            assertEquals((byte) 0x0B, note[1]);
+
+            byte[] mk2 = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 18h 0Ah 0Bh 05h F7h");
+            fl_in.getReceiver().send(new SysexMessage(mk2, mk2.length), -1);
+            assertArrayEquals(MidiHandler.hex2byte("F0h 00h 20h 29h 02h 0Ch 03h 00h 0Bh 05h F7h"),
+                    toLPX.messages.poll(1, TimeUnit.SECONDS));
+
+            midi.setMode(MidiHandler.eMode.Native);
+            assertArrayEquals(LedTranslator.LPX_NOTE_MODE, toLPX.messages.poll(1, TimeUnit.SECONDS));
+            lpx_in.getReceiver().send(new ShortMessage(ShortMessage.NOTE_ON, 0x24, 0x40), -1);
+            assertArrayEquals(MidiHandler.hex2byte("90h 24h 40h"), toFLNative.messages.poll(1, TimeUnit.SECONDS));
+            assertTrue(toFL.messages.isEmpty());
+        } finally {
+            midi.stop();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.f1oat.launchpad.x.gateway;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test public void testBuckets() {
+        for (long v = 0; v < 1L << 36; v = v * 3 / 2 + 1) {
+            int bucket = LatencyHistogram.bucket(v);
+            long high = LatencyHistogram.highestValue(bucket);
+            assertTrue("value " + v, v <= high);
+            assertTrue("value " + v, high - v <= Math.max(0, v / 32));
+        }
+    }
+
+    @Test public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(500000, h.getPercentile(50), 500000 / 32);
+        assertEquals(990000, h.getPercentile(99), 990000 / 32);
+        assertEquals(1000000, h.getPercentile(100));
+    }
+}
@@ -0,0 +1,55 @@
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LedSchedulerTest {
+    private final List<byte[]> frames = new ArrayList<>();
+    private final LedScheduler scheduler = new LedScheduler((data, length, since) -> frames.add(Arrays.copyOf(data, length)));
+
+    @Test public void testCoalescing() {
+        scheduler.setFrameRate(0);
+        scheduler.setRgb(11, 1, 2, 3);
+        scheduler.setRgb(11, 4, 5, 6);
+        scheduler.setRgb(12, 7, 8, 9);
+        scheduler.commit();
+        assertEquals(1, frames.size());
+        byte[] expected = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 0Ch 03h 03h 0Bh 04h 05h 06h 03h 0Ch 07h 08h 09h F7h");
+        assertArrayEquals(expected, frames.get(0));
+    }
+
+    @Test public void testRedundantUpdatesDropped() {
+        scheduler.setFrameRate(0);
+        scheduler.setRgb(11, 1, 2, 3);
+        scheduler.commit();
+        scheduler.setRgb(11, 1, 2, 3);
+        scheduler.setRgb(5, 1, 2, 3);   // Not a pad
+        scheduler.commit();
+        assertEquals(1, frames.size());
+        assertEquals(1, scheduler.getDroppedCount());
+    }
+
+    @Test public void testResync() {
+        scheduler.setFrameRate(0);
+        scheduler.setRgb(11, 1, 2, 3);
+        scheduler.commit();
+        scheduler.setSpec(99, LedTranslator.STATIC, 5, 0, 0);
+        scheduler.commit();
+        scheduler.resync();
+        assertEquals(3, frames.size());
+        byte[] expected = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 0Ch 03h 03h 0Bh 01h 02h 03h 00h 63h 05h F7h");
+        assertArrayEquals(expected, frames.get(2));
+    }
+
+    @Test public void testStateCacheMirror() {
+        scheduler.setSpec(99, LedTranslator.STATIC, 5, 0, 0);
+        List<Integer> changed = new ArrayList<>();
+        scheduler.getState().poll((index, r, g, b) -> changed.add(index << 24 | r << 16 | g << 8 | b));
+        assertEquals(1, changed.size());
+        assertEquals(99 << 24 | LpxPalette.rgb7(5), (int) changed.get(0));
+        assertEquals(0, scheduler.getState().poll((index, r, g, b) -> fail()));
+    }
+}
@@ -0,0 +1,21 @@
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LedTranslatorTest {
+    @Test public void testTranslateRgb() {
+        LedTranslator t = new LedTranslator();
+        byte[] mk2 = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 18h 0Bh 0Bh 3Fh 00h 01h 63h 00h 20h 3Fh F7h");
+        int length = t.translateRgb(mk2, mk2.length);
+        byte[] expected = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 0Ch 03h 03h 0Bh 7Eh 00h 02h 03h 63h 00h 40h 7Eh F7h");
+        assertArrayEquals(expected, Arrays.copyOf(t.getFrame(), length));
+    }
+
+    @Test public void testTruncatedFrame() {
+        LedTranslator t = new LedTranslator();
+        byte[] mk2 = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 18h 0Bh 0Bh 3Fh F7h");
+        assertEquals(LedTranslator.LPX_LIGHTING.length + 1, t.translateRgb(mk2, mk2.length));
+    }
+}
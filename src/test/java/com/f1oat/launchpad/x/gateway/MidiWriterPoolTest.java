@@ -0,0 +1,155 @@
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MidiWriterPoolTest {
+    private static class Collector implements Receiver {
+        final BlockingQueue<byte[]> messages = new ArrayBlockingQueue<>(64);
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            messages.offer(message.getMessage());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final MidiOutputQueue.Listener IGNORE = new MidiOutputQueue.Listener() {
+        @Override
+        public void sent(long since, int length) {
+        }
+
+        @Override
+        public void failed() {
+        }
+
+        @Override
+        public void dropped() {
+        }
+    };
+
+    private static MidiOutputQueue queue(Collector collector) {
+        return queue(collector, 0);
+    }
+
+    private static MidiOutputQueue queue(Collector collector, int maxSysex) {
+        VirtualMidiDevice device = new VirtualMidiDevice("out");
+        device.getTransmitter().setReceiver(collector);
+        return new MidiOutputQueue(new MidiOutputSession(device), 16, maxSysex, MidiOutputQueue.eOverflow.Block, IGNORE);
+    }
+
+    @Test public void testSharedWriterKeepsOrder() throws Exception {
+        MidiWriterPool pool = new MidiWriterPool();
+        pool.setSize(1);
+        Collector a = new Collector();
+        Collector b = new Collector();
+        MidiOutputQueue qa = queue(a);
+        MidiOutputQueue qb = queue(b);
+        qa.start(pool);
+        qb.start(pool);
+        assertEquals(1, pool.getThreadCount());
+
+        for (int i = 0; i < 10; i++) {
+            qa.offerShort(0x90, i, 1, 0);
+            qb.offerShort(0x90, i, 2, 0);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, a.messages.poll(1, TimeUnit.SECONDS)[1]);
+            assertEquals(i, b.messages.poll(1, TimeUnit.SECONDS)[1]);
+        }
+        qa.stop();
+        qb.stop();
+        assertEquals(0, pool.getThreadCount());     // Idle writer gone with its last queue
+    }
+
+    @Test public void testLedQueuesApart() throws Exception {
+        MidiWriterPool pool = new MidiWriterPool();
+        pool.setSize(2);
+        MidiOutputQueue led1 = queue(new Collector());
+        MidiOutputQueue fl1 = queue(new Collector());
+        MidiOutputQueue fl2 = queue(new Collector());
+        MidiOutputQueue led2 = queue(new Collector());
+        led1.start(pool, true);
+        fl1.start(pool, false);
+        fl2.start(pool, false);
+        led2.start(pool, true);
+        assertEquals(2, pool.getThreadCount());
+
+        fl1.stop();
+        fl2.stop();
+        assertEquals(1, pool.getThreadCount());     // Both LED queues on the remaining writer
+        led1.stop();
+        led2.stop();
+        assertEquals(0, pool.getThreadCount());
+    }
+
+    @Test public void testSysexFromArena() throws Exception {
+        MidiWriterPool pool = new MidiWriterPool();
+        pool.setSize(1);
+        Collector c = new Collector();
+        MidiOutputQueue q = queue(c, 16);
+        q.start(pool);
+
+        byte[] longer = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 0Ch 03h 03h 0Bh 7Fh 00h 00h F7h");
+        byte[] shorter = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 0Ch 00h 7Fh F7h");
+        assertTrue(q.offerSysex(longer, longer.length, 0));
+        assertTrue(q.offerSysex(shorter, shorter.length, 0));
+        assertFalse(q.offerSysex(new byte[20], 20, 0));        // Larger than a region
+        assertFalse(q.offerSysex(new byte[]{0x12, 0x34}, 2, 0));
+
+        assertArrayEquals(longer, c.messages.poll(1, TimeUnit.SECONDS));
+        assertArrayEquals(shorter, c.messages.poll(1, TimeUnit.SECONDS));   // Message length follows each send
+        q.stop();
+    }
+
+    @Test public void testControlNeverDropped() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Collector c = new Collector() {
+            @Override
+            public void send(MidiMessage message, long timeStamp) {
+                super.send(message, timeStamp);
+                try {
+                    release.await();                // The writer holds the first message
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        VirtualMidiDevice device = new VirtualMidiDevice("out");
+        device.getTransmitter().setReceiver(c);
+        MidiOutputQueue q = new MidiOutputQueue(new MidiOutputSession(device), 2, 16, MidiOutputQueue.eOverflow.DropOldest, IGNORE);
+        MidiWriterPool pool = new MidiWriterPool();
+        q.start(pool);
+
+        byte[] mode = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 0Ch 00h 7Fh F7h");
+        assertTrue(q.offerShort(0x90, 1, 1, 0));
+        assertEquals(0x90, c.messages.poll(1, TimeUnit.SECONDS)[0] & 0xFF);
+        assertTrue(q.offerShort(0x90, 2, 1, 0));
+        assertTrue(q.offerControl(mode, mode.length, 0));
+        assertTrue(q.offerShort(0x90, 3, 1, 0));            // Drops note 2
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            release.countDown();
+        }).start();
+        assertTrue(q.offerShort(0x90, 4, 1, 0));            // Waits for the mode change to be sent
+        assertEquals(1, q.getDroppedCount());
+
+        assertArrayEquals(mode, c.messages.poll(1, TimeUnit.SECONDS));
+        assertEquals(3, c.messages.poll(1, TimeUnit.SECONDS)[1]);
+        assertEquals(4, c.messages.poll(1, TimeUnit.SECONDS)[1]);
+        q.stop();
+    }
+}
@@ -0,0 +1,56 @@
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class Mk2SysexDecoderTest {
+    private static class Recorder implements Mk2SysexDecoder.LedSink {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void setRgb(int index, int r, int g, int b) {
+            calls.add("rgb " + index + " " + r + " " + g + " " + b);
+        }
+
+        @Override
+        public void setPalette(int index, int type, int colour) {
+            calls.add("pal " + index + " " + type + " " + colour);
+        }
+
+        @Override
+        public void setLayout(int layout) {
+            calls.add("layout " + layout);
+        }
+    }
+
+    private static List<String> decode(String hex) {
+        Recorder r = new Recorder();
+        byte[] data = MidiHandler.hex2byte(hex);
+        new Mk2SysexDecoder().decode(data, data.length, r);
+        return r.calls;
+    }
+
+    @Test public void testPaletteAndTopRow() {
+        List<String> calls = decode("F0h 00h 20h 29h 02h 18h 0Ah 0Bh 05h 68h 15h 0Ah 01h F7h");
+        assertEquals(2, calls.size());
+        assertEquals("pal 11 0 5", calls.get(0));
+        assertEquals("pal 91 0 21", calls.get(1));
+    }
+
+    @Test public void testSetAll() {
+        assertEquals(80, decode("F0h 00h 20h 29h 02h 18h 0Eh 05h F7h").size());
+    }
+
+    @Test public void testFlashWithOrWithoutPrefix() {
+        assertEquals("pal 11 1 5", decode("F0h 00h 20h 29h 02h 18h 23h 00h 0Bh 05h F7h").get(0));
+        assertEquals("pal 11 2 5", decode("F0h 00h 20h 29h 02h 18h 28h 0Bh 05h F7h").get(0));
+    }
+
+    @Test public void testIgnored() {
+        assertTrue(decode("F0h 00h 20h 29h 02h F7h").isEmpty());
+        assertTrue(decode("F0h 00h 20h 29h 02h 10h 0Eh 05h F7h").isEmpty());
+        assertTrue(decode("F0h 00h 20h 29h 02h 18h 7Fh 05h F7h").isEmpty());
+    }
+}
@@ -0,0 +1,46 @@
+package com.f1oat.launchpad.x.gateway;
+
+import javax.sound.midi.ShortMessage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PadMapTest {
+    @Test public void testDefault() {
+        PadMap map = new PadMap();
+        assertEquals(0x900B, map.route(0x90, 0x0B));
+        assertEquals(0x9013, map.route(0xB0, 0x13));    // Side buttons, CC to note
+        assertEquals(0xB068, map.route(0xB0, 0x5B));    // Top row
+        assertEquals(0xA10B, map.route(0xA1, 0x0B));
+        assertEquals(PadMap.UNMAPPED, map.route(0x80, 0x0B));
+        assertEquals(100, map.value(0x90, 0x0B, 100));
+    }
+
+    @Test public void testRemap() {
+        PadMap map = new PadMap();
+        map.remap(ShortMessage.NOTE_ON, PadMap.ANY_CHANNEL, 11, 18, PadMap.SAME, 36, 1);
+        map.remap(ShortMessage.CONTROL_CHANGE, 0, 0x5B, 0x5B, PadMap.UNMAPPED, PadMap.SAME, PadMap.SAME);
+        assertEquals(0x9124, map.route(0x90, 11));
+        assertEquals(0x912B, map.route(0x90, 18));
+        assertEquals(0x9013, map.route(0x90, 19));
+        assertEquals(PadMap.UNMAPPED, map.route(0xB0, 0x5B));
+    }
+
+    @Test public void testVelocityCurve() {
+        PadMap map = new PadMap();
+        map.setVelocity(ShortMessage.NOTE_ON, PadMap.ANY_CHANNEL, 0, 127, VelocityCurve.breakpoints("test", new int[][]{{0, 64}, {127, 127}}));
+        assertEquals(0, map.value(0x90, 11, 0));    // Releases unchanged
+        assertEquals(127, map.value(0x90, 11, 127));
+        assertEquals(95, map.value(0x90, 11, 63));
+        assertEquals(63, map.value(0xA0, 11, 63));
+    }
+
+    @Test public void testVelocityRange() {
+        PadMap map = new PadMap();
+        map.setVelocity(ShortMessage.NOTE_ON, 0, 11, 18, VelocityCurve.breakpoints("test", new int[][]{{0, 64}, {127, 127}}));
+        assertEquals(95, map.value(0x90, 11, 63));
+        assertEquals(95, map.value(0x90, 18, 63));
+        assertEquals(63, map.value(0x90, 19, 63));  // Outside the range, identity
+        assertEquals(63, map.value(0x90, 10, 63));
+        assertEquals(63, map.value(0x91, 11, 63));  // Other channel
+    }
+}
@@ -0,0 +1,21 @@
+package com.f1oat.launchpad.x.gateway;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PaletteMatcherTest {
+    @Test public void testExact() {
+        PaletteMatcher m = new PaletteMatcher();
+        assertEquals(0, m.match(0, 0, 0));
+        assertEquals(5, m.match(63, 0, 0));     // FF0000, lowest of the duplicates
+        assertEquals(-1, m.match(1, 2, 3));
+    }
+
+    @Test public void testNearest() {
+        PaletteMatcher m = new PaletteMatcher();
+        m.setMaxDistance(4);
+        assertEquals(0, m.match(1, 1, 1));
+        m.setMaxDistance(PaletteMatcher.DISABLED);
+        assertEquals(-1, m.match(63, 0, 0));
+    }
+}
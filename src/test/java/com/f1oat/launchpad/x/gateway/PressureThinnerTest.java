@@ -0,0 +1,87 @@
+package com.f1oat.launchpad.x.gateway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.ShortMessage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PressureThinnerTest {
+    @Test public void testMinDelta() {
+        PressureThinner thinner = new PressureThinner();
+        thinner.setMinDelta(4);
+        thinner.setMaxRate(0);
+        assertTrue(thinner.accept(ShortMessage.NOTE_ON, 0, 11, 100));
+        assertTrue(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 50));
+        assertFalse(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 52));
+        assertTrue(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 12, 52));   // Other pad
+        assertTrue(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 54));
+        assertTrue(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 0));    // Release
+        assertEquals(1, thinner.getDeltaDroppedCount());
+    }
+
+    @Test public void testMaxRate() {
+        PressureThinner thinner = new PressureThinner();
+        thinner.setMinDelta(1);
+        thinner.setMaxRate(1);
+        assertTrue(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 10));
+        assertFalse(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 20));
+        assertTrue(thinner.accept(ShortMessage.NOTE_ON, 0, 11, 0));          // Notes are never delayed
+        assertTrue(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 30));
+        assertEquals(1, thinner.getRateDroppedCount());
+    }
+
+    @Test public void testBurstEndsOnLastValue() throws Exception {
+        PressureThinner thinner = new PressureThinner();
+        thinner.setMinDelta(2);
+        thinner.setMaxRate(100);                                            // 10 ms per pad
+        List<Integer> sent = new ArrayList<>();
+        PressureThinner.Sink sink = (channel, pad, value) -> sent.add(value);
+
+        assertTrue(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 40));
+        assertFalse(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 70));
+        assertFalse(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 100));  // Then the finger holds still
+        thinner.flush(sink);
+        assertTrue(sent.isEmpty());                                         // Too soon
+        Thread.sleep(20);
+        thinner.flush(sink);
+        assertEquals(Arrays.asList(100), sent);
+        thinner.flush(sink);
+        assertEquals(1, sent.size());
+        assertEquals(1, thinner.getFlushedCount());
+    }
+
+    @Test public void testPendingCleared() throws Exception {
+        PressureThinner thinner = new PressureThinner();
+        thinner.setMinDelta(2);
+        thinner.setMaxRate(100);
+        List<Integer> sent = new ArrayList<>();
+        assertTrue(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 40));
+        assertFalse(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 100));
+        assertFalse(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 11, 41));   // Back to what was sent
+        assertTrue(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 12, 50));
+        assertFalse(thinner.accept(ShortMessage.POLY_PRESSURE, 0, 12, 90));
+        assertTrue(thinner.accept(ShortMessage.NOTE_OFF, 0, 12, 0));          // Touch over
+        Thread.sleep(20);
+        thinner.flush((channel, pad, value) -> sent.add(value));
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test public void testFlushTimer() throws Exception {
+        PressureThinner thinner = new PressureThinner();
+        thinner.setMaxRate(100);
+        BlockingQueue<Integer> sent = new ArrayBlockingQueue<>(4);
+        thinner.start((channel, pad, value) -> sent.add((channel << 16) | (pad << 8) | value));
+        try {
+            assertTrue(thinner.accept(ShortMessage.POLY_PRESSURE, 2, 11, 40));
+            assertFalse(thinner.accept(ShortMessage.POLY_PRESSURE, 2, 11, 100));
+            assertEquals((2 << 16) | (11 << 8) | 100, (int) sent.poll(1, TimeUnit.SECONDS));
+        } finally {
+            thinner.stop();
+        }
+    }
+}
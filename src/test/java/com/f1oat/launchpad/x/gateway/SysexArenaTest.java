@@ -0,0 +1,26 @@
+package com.f1oat.launchpad.x.gateway;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SysexArenaTest {
+    @Test public void testRegions() {
+        SysexArena arena = new SysexArena(4, 8);
+        assertEquals(4, arena.getRegions());
+        assertEquals(8, arena.getRegionSize());
+
+        arena.put(1, new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 8);
+        arena.put(2, new byte[]{9, 10, 11}, 3);
+
+        byte[] out = new byte[8];
+        arena.get(1, out, 8);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, out);
+
+        out = new byte[3];
+        SysexArena.Reader reader = arena.newReader();
+        reader.get(2, out, 3);
+        assertArrayEquals(new byte[]{9, 10, 11}, out);
+        reader.get(1, out, 3);
+        assertArrayEquals(new byte[]{1, 2, 3}, out);    // Regions do not overlap
+    }
+}
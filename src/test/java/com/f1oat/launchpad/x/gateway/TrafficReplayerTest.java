@@ -0,0 +1,113 @@
+package com.f1oat.launchpad.x.gateway;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TrafficReplayerTest {
+    private static class Collector implements Receiver {
+        final List<byte[]> messages = new ArrayList<>();
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            messages.add(message.getMessage());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test public void testRoundTrip() throws Exception {
+        File log = File.createTempFile("traffic", ".lpxr");
+        log.deleteOnExit();
+        log.delete();
+        byte[] sysex = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 18h 0Eh 05h F7h");
+
+        TrafficRecorder recorder = new TrafficRecorder();
+        recorder.open(log);
+        recorder.record(TrafficRecorder.FROM_FL, sysex, sysex.length, 1000000);
+        recorder.recordShort(TrafficRecorder.FROM_LPX, 0x90, 0x0B, 0x40, 3000000);
+        recorder.close();
+
+        VirtualMidiDevice fl = new VirtualMidiDevice("fl");
+        VirtualMidiDevice lpx = new VirtualMidiDevice("lpx");
+        Collector fromFl = new Collector();
+        Collector fromLpx = new Collector();
+        fl.getTransmitter().setReceiver(fromFl);
+        lpx.getTransmitter().setReceiver(fromLpx);
+
+        assertEquals(2, new TrafficReplayer(fl, lpx).replay(log, TrafficReplayer.FASTEST));
+        assertArrayEquals(sysex, fromFl.messages.get(0));
+        assertArrayEquals(MidiHandler.hex2byte("90h 0Bh 40h"), fromLpx.messages.get(0));
+    }
+
+    @Test public void testMergedDirections() throws Exception {
+        File log = File.createTempFile("traffic", ".lpxr");
+        log.deleteOnExit();
+        log.delete();
+        byte[] sysex = MidiHandler.hex2byte("F0h 00h 20h 29h 02h 18h 0Eh 05h F7h");
+        EventBus fromFl = new EventBus(16, 64);
+        EventBus fromLpx = new EventBus(16, 0);
+
+        TrafficRecorder recorder = new TrafficRecorder();
+        recorder.open(log);
+        EventBus.Consumer consumer = recorder.attach(fromFl, fromLpx);
+        long t0 = 5000000;
+        for (int i = 0; i < 4; i++) {
+            fromFl.publish(sysex, sysex.length, t0 + 2000000L * i);
+            fromLpx.publishShort(0x90, i, 0x40, t0 + 2000000L * i + 1000000);
+        }
+        assertTrue(consumer.sync(5000));
+        consumer.close();
+        recorder.close();
+
+        // Every record 1 ms after the previous one, directions alternating
+        try (DataInputStream in = new DataInputStream(new FileInputStream(log))) {
+            in.readFully(new byte[TrafficRecorder.MAGIC.length]);
+            for (int i = 0; i < 8; i++) {
+                assertEquals(i % 2 == 0 ? TrafficRecorder.FROM_FL : TrafficRecorder.FROM_LPX, in.read());
+                assertEquals(i == 0 ? 0 : 1000, readVarint(in));
+                in.readFully(new byte[(int) readVarint(in)]);
+            }
+            assertEquals(-1, in.read());
+        }
+
+        List<Integer> order = new ArrayList<>();
+        VirtualMidiDevice fl = new VirtualMidiDevice("fl");
+        VirtualMidiDevice lpx = new VirtualMidiDevice("lpx");
+        fl.getTransmitter().setReceiver(new Collector() {
+            @Override
+            public void send(MidiMessage message, long timeStamp) {
+                order.add(-1);
+            }
+        });
+        lpx.getTransmitter().setReceiver(new Collector() {
+            @Override
+            public void send(MidiMessage message, long timeStamp) {
+                order.add(message.getMessage()[1] & 0xFF);
+            }
+        });
+        assertEquals(8, new TrafficReplayer(fl, lpx).replay(log, TrafficReplayer.FASTEST));
+        assertEquals(Arrays.asList(-1, 0, -1, 1, -1, 2, -1, 3), order);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.f1oat.launchpad.x.gateway;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class VelocityCurveTest {
+    @Test public void testShapes() {
+        VelocityCurve log = VelocityCurve.log("log", 4);
+        VelocityCurve exp = VelocityCurve.exp("exp", 2);
+        assertTrue(log.apply(64) > 64);
+        assertTrue(exp.apply(64) < 64);
+        assertEquals(127, log.apply(127));
+        assertEquals(127, exp.apply(127));
+        assertEquals(64, VelocityCurve.LINEAR.apply(64));
+        assertEquals(100, VelocityCurve.fixed("fixed", 100).apply(1));
+    }
+
+    @Test public void testPressAndRelease() {
+        VelocityCurve exp = VelocityCurve.exp("exp", 8);
+        assertEquals(0, exp.apply(0));
+        assertEquals(1, exp.apply(1));
+        assertEquals(0, VelocityCurve.fixed("fixed", 100).apply(0));
+    }
+}